@@ -0,0 +1,103 @@
+/**
+ * Represents a hash index from addresses to list nodes. The addresses are kept in an
+ * IntIndex, which maps each address to a slot of an array of nodes, so looking up an
+ * address boxes nothing, and the hashing and probing are those of IntIndex. The slots
+ * of removed entries are reused by later insertions, so once the index has grown to its
+ * largest size, insertions and removals create no objects.
+ * Lookups, insertions and removals take constant expected time.
+ */
+public class AddressIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final IntIndex slots; // the slot of each address
+	private Node[] nodes;         // the nodes, or null in unused slots
+	private int used;             // number of slots that were ever handed out
+	private int[] freeSlots;      // a stack of the slots below used that are unused
+	private int freeCount;        // number of slots in the stack
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public AddressIndex() {
+		slots = new IntIndex();
+		nodes = new Node[MIN_CAPACITY];
+		freeSlots = new int[MIN_CAPACITY];
+		used = 0;
+		freeCount = 0;
+	}
+
+	/**
+	 * Gets the number of entries in this index.
+	 * @return The number of entries.
+	 */
+	public int getSize() {
+		return slots.getSize();
+	}
+
+	/**
+	 * Gets the node that is stored with the given address.
+	 *
+	 * @param address
+	 *        the given address
+	 * @return the node of the address, or null if the address is not in this index
+	 */
+	public Node get(int address) {
+		int slot = slots.get(address);
+		return (slot == IntIndex.NONE) ? null : nodes[slot];
+	}
+
+	/**
+	 * Stores the given node with the given address, replacing the node
+	 * that was stored with this address before, if any.
+	 *
+	 * @param address
+	 *        the given address
+	 * @param node
+	 *        the node to store, not null
+	 */
+	public void put(int address, Node node) {
+		int slot = slots.get(address);
+		if (slot == IntIndex.NONE) {
+			slot = takeSlot();
+			slots.put(address, slot);
+		}
+		nodes[slot] = node;
+	}
+
+	/**
+	 * Removes the given address from this index.
+	 *
+	 * @param address
+	 *        the given address
+	 * @return the node that was stored with the address, or null if the address was not in this index
+	 */
+	public Node remove(int address) {
+		int slot = slots.remove(address);
+		if (slot == IntIndex.NONE) return null;
+		Node removed = nodes[slot];
+		nodes[slot] = null;
+		freeSlots[freeCount++] = slot;
+		return removed;
+	}
+
+	/**
+	 * Removes all the entries from this index.
+	 */
+	public void clear() {
+		slots.clear();
+		java.util.Arrays.fill(nodes, 0, used, null);
+		used = 0;
+		freeCount = 0;
+	}
+
+	// Returns an unused slot, reusing a released slot if there is one
+	private int takeSlot() {
+		if (freeCount > 0) return freeSlots[--freeCount];
+		if (used == nodes.length) {
+			nodes = java.util.Arrays.copyOf(nodes, 2 * used);
+			freeSlots = java.util.Arrays.copyOf(freeSlots, 2 * used);
+		}
+		return used++;
+	}
+}
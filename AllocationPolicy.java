@@ -0,0 +1,96 @@
+/**
+ * Represents a placement policy of a memory space: the rule that decides which free block
+ * malloc carves a requested block from. A policy may keep its own structure over the free
+ * blocks; the memory space tells it about every node that enters the free list, leaves it,
+ * or has its block's base address or length changed.
+ * <p>
+ * A policy serves a single memory space, and should not be shared between memory spaces.
+ */
+public interface AllocationPolicy {
+
+	/**
+	 * Selects the free node that malloc should carve a block of the given length from.
+	 * The node is not removed from the free list.
+	 *
+	 * @param freeList
+	 *        the free list of the memory space
+	 * @param length
+	 *        the requested length, in words
+	 * @return a node of the free list whose block can hold the requested length, or null if there is none
+	 */
+	Node select(LinkedList freeList, int length);
+
+	/**
+	 * Returns the number of free blocks that the last call to select examined, which the
+	 * instrumentation of the memory space records as the scan depth of malloc.
+	 * Policies that find the block through an index, without scanning, return 0.
+	 *
+	 * @return the scan depth of the last selection
+	 */
+	default int lastScanDepth() {
+		return 0;
+	}
+
+	/**
+	 * Called after the given node is added to the free list.
+	 *
+	 * @param node
+	 *        the added node
+	 */
+	default void added(Node node) {
+	}
+
+	/**
+	 * Called before the given node is removed from the free list.
+	 *
+	 * @param node
+	 *        the node that is about to be removed
+	 */
+	default void removed(Node node) {
+	}
+
+	/**
+	 * Called before the base address or the length of the given node's block is changed.
+	 *
+	 * @param node
+	 *        the node of the block that is about to change
+	 */
+	default void resizing(Node node) {
+	}
+
+	/**
+	 * Called after the base address or the length of the given node's block is changed.
+	 *
+	 * @param node
+	 *        the node of the changed block
+	 */
+	default void resized(Node node) {
+	}
+
+	/**
+	 * Constructs a new placement policy of the given name: "first-fit", "next-fit",
+	 * "best-fit", "worst-fit" or "segregated".
+	 *
+	 * @param name
+	 *        the name of the policy
+	 * @return a new policy of the given name
+	 * @throws IllegalArgumentException
+	 *         if there is no policy of the given name
+	 */
+	static AllocationPolicy forName(String name) {
+		switch (name) {
+			case "first-fit":
+				return new FirstFitPolicy();
+			case "next-fit":
+				return new NextFitPolicy();
+			case "best-fit":
+				return new BestFitPolicy();
+			case "worst-fit":
+				return new WorstFitPolicy();
+			case "segregated":
+				return new SegregatedFitPolicy();
+			default:
+				throw new IllegalArgumentException("unknown policy " + name);
+		}
+	}
+}
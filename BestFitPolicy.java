@@ -0,0 +1,17 @@
+/**
+ * Represents the best-fit placement policy: malloc carves the requested block from the
+ * shortest free block that can hold it, so small requests are carved from small blocks,
+ * and the large blocks stay available for large requests. Among free blocks of the same
+ * length, the one with the lowest base address is selected.
+ */
+public class BestFitPolicy extends SizeOrderedPolicy {
+
+	/**
+	 * Selects the shortest node that fits, with a single O(log n) tree search.
+	 */
+	public Node select(LinkedList freeList, int length) {
+		probe.block.baseAddress = Integer.MIN_VALUE;
+		probe.block.length = length;
+		return tree.ceiling(probe);
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Represents a store of memory blocks in struct-of-arrays form. Instead of a MemoryBlock
+ * object and a Node object per block, each block is a slot: an index into parallel int
+ * arrays that hold the base addresses, the lengths, and the next and prev links of the
+ * blocks. The store holds a fixed number of doubly linked lists of slots, numbered from 0.
+ * <p>
+ * Released slots are kept on a free-slot stack (linked through the next array) and reused,
+ * so once the arrays have grown to the peak number of blocks, adding and removing blocks
+ * allocates nothing.
+ */
+public class BlockStore {
+
+	/** The slot that stands for "no block", at the ends of the lists. */
+	public static final int NONE = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] base;     // base[s] is the base address of the block in slot s
+	private int[] length;   // length[s] is the length of the block in slot s
+	private int[] next;     // next[s] is the slot that follows slot s in its list
+	private int[] prev;     // prev[s] is the slot that precedes slot s in its list
+	private int used;       // slots 0 .. used - 1 have been handed out at least once
+	private int released;   // top of the stack of released slots, or NONE
+
+	private final int[] first; // first[l] is the first slot of list l, or NONE
+	private final int[] last;  // last[l] is the last slot of list l, or NONE
+	private final int[] size;  // size[l] is the number of slots in list l
+
+	/**
+	 * Constructs a store with the given number of empty lists.
+	 *
+	 * @param lists
+	 *        the number of lists
+	 * @param capacity
+	 *        the number of blocks that the store can hold before its arrays grow
+	 */
+	public BlockStore(int lists, int capacity) {
+		capacity = Math.max(capacity, MIN_CAPACITY);
+		base = new int[capacity];
+		length = new int[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+		used = 0;
+		released = NONE;
+		first = new int[lists];
+		last = new int[lists];
+		size = new int[lists];
+		java.util.Arrays.fill(first, NONE);
+		java.util.Arrays.fill(last, NONE);
+	}
+
+	/**
+	 * Creates a block with the given base address and length, in a slot that is in no list.
+	 *
+	 * @param baseAddress
+	 *        the base address of the block
+	 * @param blockLength
+	 *        the length of the block, in words
+	 * @return the slot of the new block
+	 */
+	public int newBlock(int baseAddress, int blockLength) {
+		int s;
+		if (released != NONE) {
+			s = released;
+			released = next[s];
+		} else {
+			if (used == base.length) grow();
+			s = used++;
+		}
+		base[s] = baseAddress;
+		length[s] = blockLength;
+		next[s] = NONE;
+		prev[s] = NONE;
+		return s;
+	}
+
+	/**
+	 * Releases the given slot, which must be in no list, for reuse.
+	 */
+	public void releaseBlock(int s) {
+		next[s] = released;
+		released = s;
+	}
+
+	/** Returns the base address of the block in the given slot. */
+	public int base(int s) {
+		return base[s];
+	}
+
+	/** Returns the length of the block in the given slot. */
+	public int length(int s) {
+		return length[s];
+	}
+
+	/** Sets the base address of the block in the given slot. */
+	public void setBase(int s, int baseAddress) {
+		base[s] = baseAddress;
+	}
+
+	/** Sets the length of the block in the given slot. */
+	public void setLength(int s, int blockLength) {
+		length[s] = blockLength;
+	}
+
+	/** Returns the slot that follows the given slot in its list, or NONE. */
+	public int next(int s) {
+		return next[s];
+	}
+
+	/** Returns the slot that precedes the given slot in its list, or NONE. */
+	public int prev(int s) {
+		return prev[s];
+	}
+
+	/** Returns the first slot of the given list, or NONE. */
+	public int first(int list) {
+		return first[list];
+	}
+
+	/** Returns the last slot of the given list, or NONE. */
+	public int last(int list) {
+		return last[list];
+	}
+
+	/** Returns the number of slots in the given list. */
+	public int size(int list) {
+		return size[list];
+	}
+
+	/**
+	 * Appends the given slot, which must be in no list, to the end of the given list.
+	 */
+	public void addLast(int list, int s) {
+		next[s] = NONE;
+		prev[s] = last[list];
+		if (last[list] == NONE) first[list] = s;
+		else next[last[list]] = s;
+		last[list] = s;
+		size[list]++;
+	}
+
+	/**
+	 * Unlinks the given slot from the given list, in O(1) time.
+	 * The slot keeps its block, and is in no list afterwards.
+	 */
+	public void unlink(int list, int s) {
+		if (prev[s] == NONE) first[list] = next[s];
+		else next[prev[s]] = next[s];
+		if (next[s] == NONE) last[list] = prev[s];
+		else prev[next[s]] = prev[s];
+		next[s] = NONE;
+		prev[s] = NONE;
+		size[list]--;
+	}
+
+	/**
+	 * Appends a textual representation of the blocks of the given list to the given
+	 * builder, in the same format as LinkedList.toString.
+	 */
+	public void appendList(StringBuilder str, int list) {
+		for (int s = first[list]; s != NONE; s = next[s]) {
+			str.append('(').append(base[s]).append(" , ").append(length[s]).append(") ");
+		}
+	}
+
+	// Doubles the capacity of the arrays
+	private void grow() {
+		int capacity = 2 * base.length;
+		base = java.util.Arrays.copyOf(base, capacity);
+		length = java.util.Arrays.copyOf(length, capacity);
+		next = java.util.Arrays.copyOf(next, capacity);
+		prev = java.util.Arrays.copyOf(prev, capacity);
+	}
+}
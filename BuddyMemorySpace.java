@@ -0,0 +1,196 @@
+/**
+ * Represents a managed memory space that allocates by the buddy system. Every block has
+ * a power-of-two length 2^k (its order), and a base address that is a multiple of 2^k.
+ * The buddy of the block of order k at address a is the block of order k at address
+ * a ^ 2^k. Together, two buddies form the block of order k + 1 at address a & ~2^k.
+ * <p>
+ * A request is rounded up to a power of two. malloc splits a larger free block in halves
+ * until a block of the requested order is left, and free merges the released block with
+ * its buddy, and the result with its own buddy, and so on, as long as the buddies are free.
+ * Both take O(log maxSize) time: the free blocks of each order are kept in a list that is
+ * linked through arrays indexed by address, so no list is ever scanned.
+ * <p>
+ * If maxSize is not a power of two, the memory is split into the power-of-two chunks of
+ * its binary representation, largest first. The chunks are never merged with each other.
+ * <p>
+ * This class has the same malloc, free and toString contract as MemorySpace. The lengths
+ * of the allocated blocks are reported as the rounded-up lengths that were reserved.
+ */
+public class BuddyMemorySpace {
+
+	private static final int NONE = -1;
+
+	private final int maxSize;      // the size of the managed memory space
+	private final int maxOrder;     // the order of the largest possible block
+	private final int[] heads;      // heads[k] is the first free block of order k, or NONE
+	private int nonEmpty;           // bit k is set if there is a free block of order k
+	private final int[] next;       // next[a] is the block that follows the block at a in its list
+	private final int[] prev;       // prev[a] is the block that precedes the block at a in its list
+	private final byte[] freeOrder; // freeOrder[a] is the order of the free block at a, or NONE
+	private final byte[] usedOrder; // usedOrder[a] is the order of the allocated block at a, or NONE
+	private int allocatedFirst;     // the first allocated block, in allocation order, or NONE
+	private int allocatedLast;      // the last allocated block, in allocation order, or NONE
+	private int allocatedCount;     // number of allocated blocks
+
+	/**
+	 * Constructs a new buddy memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @throws IllegalArgumentException
+	 *         if maxSize is not positive
+	 */
+	public BuddyMemorySpace(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+		maxOrder = 31 - Integer.numberOfLeadingZeros(maxSize);
+		heads = new int[maxOrder + 1];
+		java.util.Arrays.fill(heads, NONE);
+		next = new int[maxSize];
+		prev = new int[maxSize];
+		freeOrder = new byte[maxSize];
+		usedOrder = new byte[maxSize];
+		java.util.Arrays.fill(freeOrder, (byte) NONE);
+		java.util.Arrays.fill(usedOrder, (byte) NONE);
+		allocatedFirst = NONE;
+		allocatedLast = NONE;
+		// Splits the memory into the power-of-two chunks of maxSize, largest first
+		int address = 0;
+		for (int k = maxOrder; k >= 0; k--) {
+			if ((maxSize & (1 << k)) != 0) {
+				push(address, k);
+				address += 1 << k;
+			}
+		}
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), rounded up to
+	 * a power of two. Returns the base address of the allocated block, or -1 if
+	 * unable to allocate.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		if (length > (1 << maxOrder)) return -1;
+		int order = orderOf(length);
+		int candidates = nonEmpty & (-1 << order);
+		if (candidates == 0) return -1;
+		int k = Integer.numberOfTrailingZeros(candidates);
+		int address = heads[k];
+		unlink(address, k);
+		// Splits the block in halves, and frees the upper half, until the order fits
+		while (k > order) {
+			k--;
+			push(address + (1 << k), k);
+		}
+		usedOrder[address] = (byte) order;
+		appendAllocated(address);
+		return address;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, and
+	 * merges it with its buddy as long as the buddy is free.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated
+	 */
+	public void free(int address) {
+		if (allocatedCount == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		if (address < 0 || address >= maxSize || usedOrder[address] == NONE) return;
+		int k = usedOrder[address];
+		usedOrder[address] = (byte) NONE;
+		removeAllocated(address);
+		while (k < maxOrder) {
+			int buddy = address ^ (1 << k);
+			if (buddy >= maxSize || freeOrder[buddy] != k) break;
+			unlink(buddy, k);
+			address &= ~(1 << k);
+			k++;
+		}
+		push(address, k);
+	}
+
+	/**
+	 * Does nothing: buddies are merged as soon as they are both free.
+	 */
+	public void defrag() {
+	}
+
+	/**
+	 * A textual representation of the free blocks and the allocated blocks of this
+	 * memory space, for debugging purposes. The free blocks are listed from the largest
+	 * order to the smallest, and the allocated blocks in allocation order.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int k = maxOrder; k >= 0; k--) {
+			for (int a = heads[k]; a != NONE; a = next[a]) {
+				appendBlock(str, a, k);
+			}
+		}
+		str.append('\n');
+		for (int a = allocatedFirst; a != NONE; a = next[a]) {
+			appendBlock(str, a, usedOrder[a]);
+		}
+		return str.toString();
+	}
+
+	// Returns the order of the smallest power of two that is >= length
+	private static int orderOf(int length) {
+		return (length <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+	}
+
+	// Pushes the block at the given address to the head of the free list of order k
+	private void push(int address, int k) {
+		freeOrder[address] = (byte) k;
+		prev[address] = NONE;
+		next[address] = heads[k];
+		if (heads[k] != NONE) prev[heads[k]] = address;
+		heads[k] = address;
+		nonEmpty |= 1 << k;
+	}
+
+	// Unlinks the block at the given address from the free list of order k
+	private void unlink(int address, int k) {
+		freeOrder[address] = (byte) NONE;
+		if (prev[address] == NONE) heads[k] = next[address];
+		else next[prev[address]] = next[address];
+		if (next[address] != NONE) prev[next[address]] = prev[address];
+		if (heads[k] == NONE) nonEmpty &= ~(1 << k);
+	}
+
+	// Appends the block at the given address to the list of allocated blocks
+	private void appendAllocated(int address) {
+		next[address] = NONE;
+		prev[address] = allocatedLast;
+		if (allocatedLast == NONE) allocatedFirst = address;
+		else next[allocatedLast] = address;
+		allocatedLast = address;
+		allocatedCount++;
+	}
+
+	// Removes the block at the given address from the list of allocated blocks
+	private void removeAllocated(int address) {
+		if (prev[address] == NONE) allocatedFirst = next[address];
+		else next[prev[address]] = next[address];
+		if (next[address] == NONE) allocatedLast = prev[address];
+		else prev[next[address]] = prev[address];
+		allocatedCount--;
+	}
+
+	// Appends the textual representation of the block at the given address and order
+	private static void appendBlock(StringBuilder str, int address, int k) {
+		str.append('(').append(address).append(" , ").append(1 << k).append(") ");
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Represents a managed memory space, like MemorySpace, whose blocks are kept in a
+ * BlockStore: as slots of parallel int arrays, instead of MemoryBlock and Node objects.
+ * malloc, free and defrag create no object per block, traverse no ListIterator, and
+ * follow int links instead of object pointers. Once the store has grown to the peak
+ * number of blocks, malloc and free allocate nothing at all.
+ * <p>
+ * The behavior matches a MemorySpace with the default first-fit policy: malloc scans
+ * the free list for the first block that fits, free appends the released block to the
+ * free list (or coalesces it with its free neighbors, if so constructed), and toString
+ * produces the same text.
+ */
+public class CompactMemorySpace {
+
+	// The lists of the block store
+	private static final int ALLOCATED = 0;
+	private static final int FREE = 1;
+	private static final int NONE = BlockStore.NONE;
+
+	private final BlockStore store;
+
+	// Index from the base address of each allocated block to its slot. Blocks of length 0
+	// are not in the index, since they may share their base address with another allocated
+	// block; they are counted instead, as in MemorySpace.
+	private final IntIndex allocatedIndex;
+	private int zeroLengthBlocks;
+
+	// Boundary tags: indexes from the first address, and from the address just past
+	// the end, of each non-empty free block to its slot
+	private final IntIndex freeStarts;
+	private final IntIndex freeEnds;
+
+	// If true, free merges a released block with its free neighbors right away
+	private final boolean coalesceOnFree;
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public CompactMemorySpace(int maxSize) {
+		this(maxSize, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, in which free
+	 * coalesces released blocks with their free neighbors if coalesceOnFree is true.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 */
+	public CompactMemorySpace(int maxSize, boolean coalesceOnFree) {
+		store = new BlockStore(2, 0);
+		allocatedIndex = new IntIndex();
+		freeStarts = new IntIndex();
+		freeEnds = new IntIndex();
+		this.coalesceOnFree = coalesceOnFree;
+		addFree(store.newBlock(0, maxSize));
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), from the first free
+	 * block that is long enough. Returns the base address of the allocated block,
+	 * or -1 if unable to allocate.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		for (int s = store.first(FREE); s != NONE; s = store.next(s)) {
+			if (store.length(s) >= length) {
+				int address = store.base(s);
+				int allocated;
+				if (store.length(s) == length) {
+					// The whole free block is allocated: its slot moves to the allocated list
+					removeFree(s);
+					allocated = s;
+				} else {
+					resizeFree(s, address + length, store.length(s) - length);
+					allocated = store.newBlock(address, length);
+				}
+				store.addLast(ALLOCATED, allocated);
+				if (length == 0) {
+					zeroLengthBlocks++;
+				} else {
+					allocatedIndex.put(address, allocated);
+				}
+				return address;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated
+	 */
+	public void free(int address) {
+		if (store.size(ALLOCATED) == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		int s = findAllocated(address);
+		if (s == NONE) return;
+		if (store.length(s) == 0) {
+			zeroLengthBlocks--;
+		} else {
+			allocatedIndex.remove(address);
+		}
+		store.unlink(ALLOCATED, s);
+		if (!coalesceOnFree) {
+			addFree(s);
+			return;
+		}
+		int left = freeEnds.get(address);
+		int right = freeStarts.get(address + store.length(s));
+		if (left != NONE) {
+			int length = store.length(left) + store.length(s);
+			if (right != NONE) {
+				length += store.length(right);
+				removeFree(right);
+				store.releaseBlock(right);
+			}
+			resizeFree(left, store.base(left), length);
+			store.releaseBlock(s);
+		} else if (right != NONE) {
+			resizeFree(right, address, store.length(s) + store.length(right));
+			store.releaseBlock(s);
+		} else {
+			addFree(s);
+		}
+	}
+
+	/**
+	 * Performs defragmantation of this memory space: merges each run of adjacent free
+	 * blocks into the run's lowest block, which keeps its position in the free list.
+	 * The free slots are sorted by base address (as packed longs, so that no object is
+	 * created per block), and then merged in a single sweep. Blocks with the same base
+	 * address stay in free list order, as in MemorySpace.defrag.
+	 */
+	public void defrag() {
+		int n = store.size(FREE);
+		if (n < 2) return;
+		// Each packed long holds a base address and the position of its slot in the free list
+		long[] byAddress = new long[n];
+		int[] slots = new int[n];
+		int i = 0;
+		for (int s = store.first(FREE); s != NONE; s = store.next(s)) {
+			slots[i] = s;
+			byAddress[i] = ((long) store.base(s) << 32) | i;
+			i++;
+		}
+		java.util.Arrays.sort(byAddress);
+		int run = slots[(int) byAddress[0]];
+		for (i = 1; i < n; i++) {
+			int s = slots[(int) byAddress[i]];
+			if (store.base(run) + store.length(run) == store.base(s)) {
+				int length = store.length(run) + store.length(s);
+				removeFree(s);
+				store.releaseBlock(s);
+				resizeFree(run, store.base(run), length);
+			} else {
+				run = s;
+			}
+		}
+	}
+
+	/**
+	 * A textual representation of the free list and the allocated list of this memory space,
+	 * for debugging purposes.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		store.appendList(str, FREE);
+		str.append('\n');
+		store.appendList(str, ALLOCATED);
+		return str.toString();
+	}
+
+	// Returns the slot of the first allocated block (in the allocated list) whose base address
+	// equals the given address, or NONE. The slot is found through the allocatedIndex, unless
+	// blocks of length 0 are allocated: then the allocated list is scanned, as in MemorySpace.
+	private int findAllocated(int address) {
+		if (zeroLengthBlocks == 0) return allocatedIndex.get(address);
+		for (int s = store.first(ALLOCATED); s != NONE; s = store.next(s)) {
+			if (store.base(s) == address) return s;
+		}
+		return NONE;
+	}
+
+	// Appends the given slot to the free list, and records it in the boundary tags
+	private void addFree(int s) {
+		store.addLast(FREE, s);
+		if (store.length(s) > 0) {
+			freeStarts.put(store.base(s), s);
+			freeEnds.put(store.base(s) + store.length(s), s);
+		}
+	}
+
+	// Removes the given slot from the free list and the boundary tags
+	private void removeFree(int s) {
+		if (store.length(s) > 0) {
+			freeStarts.remove(store.base(s));
+			freeEnds.remove(store.base(s) + store.length(s));
+		}
+		store.unlink(FREE, s);
+	}
+
+	// Changes the base address and the length of the given free slot's block
+	private void resizeFree(int s, int baseAddress, int length) {
+		if (store.length(s) > 0) {
+			freeStarts.remove(store.base(s));
+			freeEnds.remove(store.base(s) + store.length(s));
+		}
+		store.setBase(s, baseAddress);
+		store.setLength(s, length);
+		if (length > 0) {
+			freeStarts.put(baseAddress, s);
+			freeEnds.put(baseAddress + length, s);
+		}
+	}
+}
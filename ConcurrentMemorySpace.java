@@ -0,0 +1,266 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a managed memory space that many threads can use at the same time.
+ * The address space is split into arenas: consecutive ranges of addresses, each managed
+ * by its own MemorySpace and guarded by its own lock. Every thread has a home arena
+ * (the arenas are handed out to threads in turn), and malloc serves it from there, so
+ * threads that work in different arenas never wait for each other. If the home arena
+ * cannot serve a request, malloc steals the block from another arena. free finds the
+ * arena of a block from its address alone.
+ * <p>
+ * Optionally, the top of the address space is a slab: an array of equal, small blocks,
+ * whose free blocks are kept in a LockFreeFreeList. malloc serves a request that fits in a
+ * slab block from the slab, and free returns it there, without taking any lock, so threads
+ * that allocate and free small blocks never block each other. When the slab is exhausted,
+ * small requests are served by the arenas.
+ * <p>
+ * A block never spans two arenas, so the longest block that can be allocated is the
+ * length of an arena.
+ */
+public class ConcurrentMemorySpace {
+
+	private final MemorySpace[] arenas;
+	private final ReentrantLock[] locks;
+	private final int arenaSize;  // the length of every arena but the last
+	private final int maxSize;
+
+	// The slab: slabCount blocks of length slabBlockLength, from the address slabBase up
+	private final LockFreeFreeList slab;
+	private final int slabBlockLength;
+	private final int slabBase;
+
+	// Hands out home arenas to threads in turn
+	private final AtomicInteger nextHome = new AtomicInteger();
+	private final ThreadLocal<Integer> home =
+			ThreadLocal.withInitial(() -> Math.floorMod(nextHome.getAndIncrement(), arenaCount()));
+
+	/**
+	 * Constructs a new concurrent memory space of a given maximal size, split into the
+	 * given number of arenas, which use the first-fit policy and coalesce on free.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param arenaCount
+	 *            the number of arenas, typically the number of threads or of cores
+	 */
+	public ConcurrentMemorySpace(int maxSize, int arenaCount) {
+		this(maxSize, arenaCount, "first-fit", true);
+	}
+
+	/**
+	 * Constructs a new concurrent memory space of a given maximal size, split into the
+	 * given number of arenas. Each arena gets its own policy of the given name.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param arenaCount
+	 *            the number of arenas, typically the number of threads or of cores
+	 * @param policyName
+	 *            the name of the placement policy, as accepted by AllocationPolicy.forName
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @throws IllegalArgumentException
+	 *         if arenaCount is not positive or greater than maxSize, or the policy is unknown
+	 */
+	public ConcurrentMemorySpace(int maxSize, int arenaCount, String policyName, boolean coalesceOnFree) {
+		this(maxSize, arenaCount, policyName, coalesceOnFree, 1, 0);
+	}
+
+	/**
+	 * Constructs a new concurrent memory space of a given maximal size, whose top
+	 * slabBlockLength * slabCount words are a lock-free slab of small blocks, and whose
+	 * other words are split into the given number of arenas.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param arenaCount
+	 *            the number of arenas, typically the number of threads or of cores
+	 * @param policyName
+	 *            the name of the placement policy, as accepted by AllocationPolicy.forName
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @param slabBlockLength
+	 *            the length of a slab block: the longest request that the slab serves
+	 * @param slabCount
+	 *            the number of slab blocks, or 0 for no slab
+	 * @throws IllegalArgumentException
+	 *         if the slab does not leave at least one word for every arena,
+	 *         or the policy is unknown
+	 */
+	public ConcurrentMemorySpace(int maxSize, int arenaCount, String policyName, boolean coalesceOnFree,
+			int slabBlockLength, int slabCount) {
+		if (slabBlockLength < 1 || slabCount < 0) {
+			throw new IllegalArgumentException("slabBlockLength must be positive, and slabCount must not be negative");
+		}
+		slabBase = maxSize - slabBlockLength * slabCount;
+		if (arenaCount < 1 || arenaCount > slabBase) {
+			throw new IllegalArgumentException("arenaCount must be between 1 and the size of the arenas");
+		}
+		this.maxSize = maxSize;
+		this.slabBlockLength = slabBlockLength;
+		slab = new LockFreeFreeList(slabCount);
+		arenaSize = slabBase / arenaCount;
+		arenas = new MemorySpace[arenaCount];
+		locks = new ReentrantLock[arenaCount];
+		for (int i = 0; i < arenaCount; i++) {
+			// The last arena also takes the remainder of the division
+			int size = (i == arenaCount - 1) ? slabBase - i * arenaSize : arenaSize;
+			arenas[i] = new MemorySpace(size, AllocationPolicy.forName(policyName), coalesceOnFree);
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Gets the number of arenas of this memory space.
+	 * @return The number of arenas.
+	 */
+	public int arenaCount() {
+		return arenas.length;
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). A request that fits in a
+	 * slab block gets a free slab block, if there is one. Otherwise the block is taken from
+	 * the calling thread's home arena if possible, and then from the other arenas: first
+	 * those whose lock is free, and then all of them.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		if (length <= slabBlockLength) {
+			int s = slab.pop();
+			if (s != LockFreeFreeList.NONE) return slabBase + s * slabBlockLength;
+		}
+		int first = home.get();
+		int address = mallocIn(first, length);
+		if (address != -1) return address;
+		// Steals from an arena that no other thread is using at the moment
+		for (int k = 1; k < arenas.length; k++) {
+			int i = (first + k) % arenas.length;
+			if (locks[i].tryLock()) {
+				try {
+					address = arenas[i].malloc(length);
+				} finally {
+					locks[i].unlock();
+				}
+				if (address != -1) return offset(i) + address;
+			}
+		}
+		// Waits for the arenas that were busy
+		for (int k = 1; k < arenas.length; k++) {
+			int i = (first + k) % arenas.length;
+			address = mallocIn(i, length);
+			if (address != -1) return address;
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address,
+	 * in the slab or the arena that contains the address.
+	 * A free of a block that is not allocated (freed twice, or never allocated)
+	 * is rejected, and leaves this memory space as it was.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if the address is outside this memory space or inside a slab block,
+	 *         or no block is allocated at the address
+	 */
+	public void free(int address) {
+		if (address < 0 || address >= maxSize) {
+			throw new IllegalArgumentException("address must be between 0 and maxSize");
+		}
+		if (address >= slabBase) {
+			if ((address - slabBase) % slabBlockLength != 0) {
+				throw new IllegalArgumentException("address is not the base address of a slab block");
+			}
+			slab.push((address - slabBase) / slabBlockLength);
+			return;
+		}
+		int i = Math.min(address / arenaSize, arenas.length - 1);
+		locks[i].lock();
+		try {
+			if (!arenas[i].isAllocated(address - offset(i))) {
+				throw new IllegalArgumentException("no block is allocated at the given address");
+			}
+			arenas[i].free(address - offset(i));
+		} finally {
+			locks[i].unlock();
+		}
+	}
+
+	/**
+	 * Performs defragmantation of every arena, one arena at a time, so that
+	 * the threads keep working in the other arenas meanwhile.
+	 */
+	public void defrag() {
+		for (int i = 0; i < arenas.length; i++) {
+			locks[i].lock();
+			try {
+				arenas[i].defrag();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Sets the instrumentation that every arena records into, or disables it if metrics
+	 * is null. The histograms of the metrics are lock-free, so the arenas share them.
+	 * Allocations from the slab are not recorded.
+	 *
+	 * @param metrics
+	 *            the metrics to record into, or null
+	 */
+	public void setMetrics(MemorySpaceMetrics metrics) {
+		for (int i = 0; i < arenas.length; i++) {
+			locks[i].lock();
+			try {
+				arenas[i].setMetrics(metrics);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * A textual representation of every arena, for debugging purposes. The addresses
+	 * of each arena are relative to the arena's first address, which is shown before it.
+	 * The slab is not shown.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < arenas.length; i++) {
+			locks[i].lock();
+			try {
+				str.append("arena ").append(i).append(" @ ").append(offset(i)).append('\n');
+				str.append(arenas[i]).append('\n');
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return str.toString();
+	}
+
+	// Allocates a block in the given arena, and returns its address, or -1
+	private int mallocIn(int i, int length) {
+		int address;
+		locks[i].lock();
+		try {
+			address = arenas[i].malloc(length);
+		} finally {
+			locks[i].unlock();
+		}
+		return (address == -1) ? -1 : offset(i) + address;
+	}
+
+	// Returns the first address of the given arena
+	private int offset(int i) {
+		return i * arenaSize;
+	}
+}
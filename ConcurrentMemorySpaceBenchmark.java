@@ -0,0 +1,121 @@
+import java.util.concurrent.CountDownLatch;
+
+/* This program measures how the throughput of malloc and free scales with the number of
+ * threads. It compares a MemorySpace that all the threads share behind one global lock with
+ * a ConcurrentMemorySpace that has one arena per thread.
+ *
+ * Every thread runs the same workload: a window of small blocks, in which each step frees
+ * a random block of the window and allocates a new one in its place. Each configuration is
+ * run a few times for warmup, and then measured; the report lists the total throughput and
+ * the speedup over a single thread.
+ *
+ * Usage: java ConcurrentMemorySpaceBenchmark [maxThreads opsPerThread]
+ * Without arguments, the threads go up to the number of available processors.
+ */
+public class ConcurrentMemorySpaceBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final int MEASURED_ITERATIONS = 3;
+	private static final int WINDOW = 256;           // blocks that each thread keeps allocated
+	private static final int MAX_BLOCK_LENGTH = 64;
+	private static final int HEAP_PER_THREAD = 1 << 16;
+
+	// Results are accumulated here, so that the JIT cannot remove the measured code
+	private static volatile long sink;
+
+	/** The operations that the benchmark calls, on either kind of memory space. */
+	private interface Allocator {
+		int malloc(int length);
+		void free(int address);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int opsPerThread = 1_000_000;
+		if (args.length == 2) {
+			maxThreads = Integer.parseInt(args[0]);
+			opsPerThread = Integer.parseInt(args[1]);
+		} else if (args.length != 0) {
+			System.out.println("Usage: java ConcurrentMemorySpaceBenchmark [maxThreads opsPerThread]");
+			return;
+		}
+		System.out.printf("%-12s %8s %14s %8s%n", "allocator", "threads", "ops/s", "speedup");
+		for (String kind : new String[] { "global-lock", "arenas" }) {
+			double single = 0;
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				double opsPerSecond = 0;
+				for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+					double result = run(kind, threads, opsPerThread);
+					if (iteration >= WARMUP_ITERATIONS) opsPerSecond += result / MEASURED_ITERATIONS;
+				}
+				if (threads == 1) single = opsPerSecond;
+				System.out.printf("%-12s %8d %14.0f %8.2f%n", kind, threads, opsPerSecond, opsPerSecond / single);
+			}
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	// Runs the workload on the given number of threads, and returns the total ops per second
+	private static double run(String kind, int threads, int opsPerThread) throws InterruptedException {
+		Allocator allocator = newAllocator(kind, threads);
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int seed = 0x2545F491 + t;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				sink += work(allocator, seed, opsPerThread);
+			});
+			workers[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long time = System.nanoTime() - begin;
+		return (double) threads * opsPerThread * 1e9 / time;
+	}
+
+	private static Allocator newAllocator(String kind, int threads) {
+		int heapSize = threads * HEAP_PER_THREAD;
+		if (kind.equals("arenas")) {
+			ConcurrentMemorySpace memory = new ConcurrentMemorySpace(heapSize, threads);
+			return new Allocator() {
+				public int malloc(int length) { return memory.malloc(length); }
+				public void free(int address) { memory.free(address); }
+			};
+		}
+		MemorySpace memory = new MemorySpace(heapSize, new FirstFitPolicy(), true);
+		return new Allocator() {
+			public synchronized int malloc(int length) { return memory.malloc(length); }
+			public synchronized void free(int address) { memory.free(address); }
+		};
+	}
+
+	// Replaces random blocks of a window of blocks, and returns a checksum of the addresses
+	private static long work(Allocator allocator, int seed, int ops) {
+		int[] window = new int[WINDOW];
+		long checksum = 0;
+		for (int i = 0; i < WINDOW; i++) {
+			window[i] = allocator.malloc(1 + i % MAX_BLOCK_LENGTH);
+		}
+		for (int i = 0; i < ops; i += 2) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			int slot = (seed >>> 8) & (WINDOW - 1);
+			if (window[slot] != -1) allocator.free(window[slot]);
+			window[slot] = allocator.malloc(1 + (seed & (MAX_BLOCK_LENGTH - 1)));
+			checksum += window[slot];
+		}
+		for (int i = 0; i < WINDOW; i++) {
+			if (window[i] != -1) allocator.free(window[i]);
+		}
+		return checksum;
+	}
+}
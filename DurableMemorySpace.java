@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a memory space whose operations survive crashes. Every malloc, free, realloc
+ * and defrag is applied to a MemorySpace and appended to a write-ahead log; checkpoint saves
+ * a snapshot of the memory space and starts a new, empty log. When a durable memory space is
+ * opened, it recovers by restoring the latest snapshot and replaying the log on top of it.
+ * <p>
+ * The operations are logged in batches (group commit): an operation is added to the current
+ * batch, and the batch is written to the log as one frame when it is full, or when commit is
+ * called. Each frame holds the length and the CRC32 of its records, so a frame that a crash
+ * cut short is recognized and dropped at recovery, with everything after it. How the frames
+ * reach the disk depends on the sync mode:
+ * <ul>
+ *   <li>NONE: nothing is logged; only the checkpoints are durable.</li>
+ *   <li>ASYNC: the frames are written to the log file, and the operating system writes them
+ *       to the disk when it chooses, so they survive a crash of the process, but maybe not
+ *       of the machine.</li>
+ *   <li>SYNC: every frame is forced to the disk before commit returns, so a committed
+ *       operation survives any crash. Batching many operations per frame amortizes the force.</li>
+ * </ul>
+ * The directory holds two files: the snapshot and the log. Each starts with a generation
+ * number, which every checkpoint increments, and the log is replayed only if its generation
+ * equals that of the snapshot. So if a crash happens during a checkpoint, after the new snapshot
+ * replaced the old one but before the log was emptied, the old log is not replayed twice.
+ */
+public class DurableMemorySpace {
+
+	/** The ways in which the log reaches the disk. */
+	public enum SyncMode {
+		/** Nothing is logged; only the checkpoints are durable. */
+		NONE,
+		/**
+		 * The frames are written to the log file on the caller's thread, but never forced:
+		 * there is no background flush, and the frames reach the disk whenever the operating
+		 * system writes them back. A checkpoint makes them durable through the snapshot.
+		 */
+		ASYNC,
+		/** Every frame is forced to the disk before commit returns. */
+		SYNC
+	}
+
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+	private static final String LOG_FILE = "wal.log";
+	private static final int LOG_MAGIC = 0x4D53574C;  // "MSWL"
+	private static final int LOG_HEADER_SIZE = 12;    // magic and generation
+	private static final int FRAME_HEADER_SIZE = 8;   // length and checksum of the records
+
+	// The operation codes of the log records
+	private static final int MALLOC = 1;
+	private static final int FREE = 2;
+	private static final int REALLOC = 3;
+	private static final int DEFRAG = 4;
+
+	private static final int DEFAULT_BATCH_SIZE = 1 << 16;
+	// The longest record: an operation code and three varints
+	private static final int MAX_RECORD_LENGTH = 4 * VarintCodec.MAX_LENGTH;
+
+	private final MemorySpace memory;
+	private final Path directory;
+	private final SyncMode mode;
+	private final FileChannel log;
+	private final ByteBuffer batch;    // the records of the current batch
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private long generation;
+
+	/**
+	 * Opens the durable memory space in the given directory, with the default batch size.
+	 * If the directory holds a snapshot and a log, the memory space is recovered from them.
+	 *
+	 * @param directory
+	 *            the directory of the snapshot and the log, which is created if needed
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @param mode
+	 *            the way in which the log reaches the disk
+	 * @throws IOException
+	 *         if the files cannot be read or written, or the snapshot is not valid
+	 */
+	public DurableMemorySpace(Path directory, int maxSize, AllocationPolicy policy, boolean coalesceOnFree,
+			SyncMode mode) throws IOException {
+		this(directory, maxSize, policy, coalesceOnFree, mode, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Opens the durable memory space in the given directory, whose batches hold up to
+	 * batchSize bytes of records (a record takes 2 to 20 bytes).
+	 *
+	 * @param directory
+	 *            the directory of the snapshot and the log, which is created if needed
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @param mode
+	 *            the way in which the log reaches the disk
+	 * @param batchSize
+	 *            the number of bytes of records after which a batch is committed
+	 * @throws IOException
+	 *         if the files cannot be read or written, or the snapshot is not valid
+	 * @throws IllegalArgumentException
+	 *         if batchSize is shorter than a record
+	 */
+	public DurableMemorySpace(Path directory, int maxSize, AllocationPolicy policy, boolean coalesceOnFree,
+			SyncMode mode, int batchSize) throws IOException {
+		if (batchSize < MAX_RECORD_LENGTH) {
+			throw new IllegalArgumentException("batchSize must be at least " + MAX_RECORD_LENGTH);
+		}
+		this.memory = new MemorySpace(maxSize, policy, coalesceOnFree);
+		this.directory = directory;
+		this.mode = mode;
+		this.batch = ByteBuffer.allocate(batchSize);
+		Files.createDirectories(directory);
+		generation = readSnapshot();
+		log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			recover();
+		} catch (IOException | RuntimeException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the memory space. It may be read freely, but changes that are made to it directly,
+	 * rather than through this durable memory space, are not logged.
+	 * @return The memory space.
+	 */
+	public MemorySpace memory() {
+		return memory;
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), as MemorySpace.malloc does,
+	 * and logs the operation.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public int malloc(int length) throws IOException {
+		int address = memory.malloc(length);
+		if (mode != SyncMode.NONE) {
+			startRecord(MALLOC);
+			VarintCodec.putInt(batch, length);
+			VarintCodec.putSignedInt(batch, address);
+		}
+		return address;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, as MemorySpace.free
+	 * does, and logs the operation.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public void free(int address) throws IOException {
+		memory.free(address);
+		if (mode != SyncMode.NONE) {
+			startRecord(FREE);
+			VarintCodec.putInt(batch, address);
+		}
+	}
+
+	/**
+	 * Changes the length of an allocated block, as MemorySpace.realloc does, and logs the operation.
+	 *
+	 * @param address
+	 *            the starting address of the block to resize
+	 * @param newLength
+	 *            the new length (in words) of the block
+	 * @return the base address of the resized block, or -1 if unable to allocate it
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public int realloc(int address, int newLength) throws IOException {
+		int newAddress = memory.realloc(address, newLength);
+		if (mode != SyncMode.NONE) {
+			startRecord(REALLOC);
+			VarintCodec.putInt(batch, address);
+			VarintCodec.putInt(batch, newLength);
+			VarintCodec.putSignedInt(batch, newAddress);
+		}
+		return newAddress;
+	}
+
+	/**
+	 * Performs defragmantation of the memory space, and logs the operation.
+	 *
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public void defrag() throws IOException {
+		memory.defrag();
+		if (mode != SyncMode.NONE) {
+			startRecord(DEFRAG);
+		}
+	}
+
+	/**
+	 * Writes the current batch to the log as one frame, and forces it to the disk in SYNC mode.
+	 * After commit returns, all the operations so far are as durable as the sync mode allows.
+	 *
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public void commit() throws IOException {
+		if (batch.position() == 0) return;
+		batch.flip();
+		crc.reset();
+		crc.update(batch.duplicate());
+		frameHeader.clear();
+		frameHeader.putInt(batch.remaining());
+		frameHeader.putInt((int) crc.getValue());
+		frameHeader.flip();
+		ByteBuffer[] frame = { frameHeader, batch };
+		while (batch.hasRemaining()) {
+			log.write(frame);
+		}
+		batch.clear();
+		if (mode == SyncMode.SYNC) log.force(false);
+	}
+
+	/**
+	 * Saves a snapshot of the memory space, and starts a new, empty log. The snapshot is
+	 * written to a temporary file, forced to the disk, and then moved over the old snapshot
+	 * (and the directory is forced, so that the move is durable too), so a crash during the
+	 * checkpoint leaves either the old or the new snapshot intact.
+	 *
+	 * @throws IOException
+	 *         if the files cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		commit();
+		long next = generation + 1;
+		Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(0, next);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			memory.snapshot(channel);
+			channel.force(true);
+		}
+		PersistentHeap.replace(temporary, directory.resolve(SNAPSHOT_FILE));
+		generation = next;
+		startLog();
+	}
+
+	/**
+	 * Commits the current batch, and closes the log.
+	 *
+	 * @throws IOException
+	 *         if the log cannot be written
+	 */
+	public void close() throws IOException {
+		try {
+			commit();
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * A textual representation of the memory space, for debugging purposes.
+	 */
+	public String toString() {
+		return memory.toString();
+	}
+
+	// Commits the batch if it has no room for another record, and puts the operation code
+	private void startRecord(int operation) throws IOException {
+		if (batch.remaining() < MAX_RECORD_LENGTH) commit();
+		batch.put((byte) operation);
+	}
+
+	// Restores the memory space from the snapshot, if there is one, and returns its generation
+	private long readSnapshot() throws IOException {
+		Path path = directory.resolve(SNAPSHOT_FILE);
+		if (!Files.exists(path)) return 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) throw new IOException("corrupted snapshot: too short");
+			}
+			memory.restore(channel);
+			return header.getLong(0);
+		}
+	}
+
+	// Replays the log, if it belongs to the snapshot, and drops the frames that a crash cut short
+	private void recover() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+		boolean complete = readFully(header, 0);
+		header.flip();
+		if (!complete || header.getInt() != LOG_MAGIC || header.getLong() != generation) {
+			// The log is empty, or was left over from before the last checkpoint
+			startLog();
+			return;
+		}
+		long position = LOG_HEADER_SIZE;
+		long size = log.size();
+		while (position + FRAME_HEADER_SIZE <= size) {
+			frameHeader.clear();
+			if (!readFully(frameHeader, position)) break;
+			int length = frameHeader.getInt(0);
+			if (length <= 0 || position + FRAME_HEADER_SIZE + length > size) break;
+			ByteBuffer records = ByteBuffer.allocate(length);
+			if (!readFully(records, position + FRAME_HEADER_SIZE)) break;
+			records.flip();
+			crc.reset();
+			crc.update(records.duplicate());
+			if ((int) crc.getValue() != frameHeader.getInt(4)) break;
+			replay(records);
+			position += FRAME_HEADER_SIZE + length;
+		}
+		log.truncate(position);
+		log.position(position);
+	}
+
+	// Reads the log from the given position until the buffer is full, since a positional read
+	// may return fewer bytes than requested. Returns false if the end of the log comes first.
+	private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = log.read(buffer, position);
+			if (read < 0) return false;
+			position += read;
+		}
+		return true;
+	}
+
+	// Applies the records of a frame to the memory space. The blocks are placed at the logged
+	// addresses, rather than where the placement policy would place them now: the state of the
+	// policy (such as the roving pointer of next-fit) is not in the snapshot, so the policy may
+	// choose differently than it did when the operations were logged.
+	private void replay(ByteBuffer records) throws IOException {
+		while (records.hasRemaining()) {
+			int operation = records.get();
+			switch (operation) {
+				case MALLOC: {
+					int length = VarintCodec.getInt(records);
+					int logged = VarintCodec.getSignedInt(records);
+					if (logged != -1) allocateAt(logged, length);
+					break;
+				}
+				case FREE:
+					memory.free(VarintCodec.getInt(records));
+					break;
+				case REALLOC: {
+					int address = VarintCodec.getInt(records);
+					int newLength = VarintCodec.getInt(records);
+					int logged = VarintCodec.getSignedInt(records);
+					if (logged == address) {
+						// The block was resized in place, which does not involve the policy
+						if (memory.realloc(address, newLength) != address) {
+							throw new IOException("corrupted log: the replay diverged from the logged addresses");
+						}
+					} else if (logged != -1) {
+						// The block was relocated: a new block was allocated, and then the old one was freed
+						allocateAt(logged, newLength);
+						memory.free(address);
+					}
+					break;
+				}
+				case DEFRAG:
+					memory.defrag();
+					break;
+				default:
+					throw new IOException("corrupted log: unknown operation " + operation);
+			}
+		}
+	}
+
+	// Allocates a block at the logged address
+	private void allocateAt(int address, int length) throws IOException {
+		if (!memory.allocateAt(address, length)) {
+			throw new IOException("corrupted log: no free block holds the logged block at " + address);
+		}
+	}
+
+	// Empties the log, and writes its header for the current generation
+	private void startLog() throws IOException {
+		log.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+		header.putInt(LOG_MAGIC).putLong(generation).flip();
+		while (header.hasRemaining()) {
+			log.write(header, header.position());
+		}
+		log.position(LOG_HEADER_SIZE);
+		log.force(true);
+	}
+}
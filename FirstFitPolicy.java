@@ -0,0 +1,33 @@
+/**
+ * Represents the first-fit placement policy: malloc carves the requested block from
+ * the first free block in the free list whose length is at least the requested length.
+ * This is the default policy of a memory space.
+ */
+public class FirstFitPolicy implements AllocationPolicy {
+
+	private int scanDepth; // the number of nodes that the last scan examined
+
+	/**
+	 * Scans the free list from its first node, and selects the first node that fits.
+	 */
+	public Node select(LinkedList freeList, int length) {
+		int depth = 0;
+		// Walks the nodes directly, rather than through a ListIterator, so that malloc allocates nothing
+		for (Node current = freeList.getFirst(); current != null; current = current.next) {
+			depth++;
+			if (current.block.length >= length) {
+				scanDepth = depth;
+				return current;
+			}
+		}
+		scanDepth = depth;
+		return null;
+	}
+
+	/**
+	 * Returns the number of nodes that the last scan examined.
+	 */
+	public int lastScanDepth() {
+		return scanDepth;
+	}
+}
@@ -0,0 +1,375 @@
+/**
+ * Represents a list of Nodes, with the same public API as LinkedList, in which the
+ * positional operations take O(log n) time instead of O(n).
+ * <p>
+ * The nodes are kept in a treap (a binary search tree by position, balanced by random
+ * priorities), in which every tree node records the size of its subtree. The node at a
+ * given index is found by descending the tree according to the subtree sizes, and the
+ * index of a given node is found by climbing from it to the root. Insertions and removals
+ * split the tree at a position and merge the parts back.
+ * <p>
+ * In addition, the nodes stay linked to each other in list order through their next and
+ * prev pointers, so getFirst, getLast and iteration work exactly as in a LinkedList.
+ */
+public class IndexedBlockList {
+
+	/** A node of the list, which is also a node of the treap. */
+	private static class TreeNode extends Node {
+		TreeNode left;   // root of the subtree of the nodes that precede this node
+		TreeNode right;  // root of the subtree of the nodes that follow this node
+		TreeNode parent; // parent in the tree, or null for the root
+		int priority;    // heap priority: a parent's priority is >= its children's
+		int count;       // number of nodes in the subtree rooted at this node
+
+		TreeNode(MemoryBlock block, int priority) {
+			super(block);
+			this.priority = priority;
+			this.count = 1;
+		}
+	}
+
+	private TreeNode root;  // root of the treap
+	private Node first;     // pointer to the first element of this list
+	private Node last;      // pointer to the last element of this list
+	private int seed;       // state of the priority generator (xorshift)
+
+	// The two parts of the last split
+	private TreeNode splitLeft;
+	private TreeNode splitRight;
+
+	/**
+	 * Constructs a new list.
+	 */
+	public IndexedBlockList() {
+		root = null;
+		first = null;
+		last = null;
+		seed = 0x2545F491;
+	}
+
+	/**
+	 * Gets the first node of the list
+	 * @return The first node of the list.
+	 */
+	public Node getFirst() {
+		return first;
+	}
+
+	/**
+	 * Gets the last node of the list
+	 * @return The last node of the list.
+	 */
+	public Node getLast() {
+		return last;
+	}
+
+	/**
+	 * Gets the current size of the list
+	 * @return The size of the list.
+	 */
+	public int getSize() {
+		return count(root);
+	}
+
+	/**
+	 * Gets the node located at the given index in this list, in O(log n) time.
+	 *
+	 * @param index
+	 *        the index of the node to retrieve, between 0 and size - 1
+	 * @throws IllegalArgumentException
+	 *         if index is negative or >= size
+	 * @return the node at the given index
+	 */
+	public Node getNode(int index) {
+		if (index < 0 || index >= getSize()) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		TreeNode current = root;
+		while (true) {
+			int leftCount = count(current.left);
+			if (index < leftCount) {
+				current = current.left;
+			} else if (index == leftCount) {
+				return current;
+			} else {
+				index -= leftCount + 1;
+				current = current.right;
+			}
+		}
+	}
+
+	/**
+	 * Creates a new Node object that points to the given memory block,
+	 * and inserts the node at the given index in this list, in O(log n) time.
+	 *
+	 * @param index
+	 *        the index before which the memory block should be inserted
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 * @throws IllegalArgumentException
+	 *         if index is negative or greater than the list's size
+	 */
+	public void add(int index, MemoryBlock block) {
+		int size = getSize();
+		if (index < 0 || index > size) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		TreeNode newNode = new TreeNode(block, nextPriority());
+		// Links the new node into the list order, between its neighbors
+		Node prevNode = (index == 0) ? null : getNode(index - 1);
+		Node nextNode = (prevNode == null) ? first : prevNode.next;
+		newNode.prev = prevNode;
+		newNode.next = nextNode;
+		if (prevNode == null) first = newNode;
+		else prevNode.next = newNode;
+		if (nextNode == null) last = newNode;
+		else nextNode.prev = newNode;
+		// Links the new node into the tree, at its position
+		split(root, index);
+		TreeNode right = splitRight;
+		root = merge(merge(splitLeft, newNode), right);
+		root.parent = null;
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and adds it
+	 * to the end of this list (the node will become the list's last element).
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addLast(MemoryBlock block) {
+		add(getSize(), block);
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and adds it
+	 * to the beginning of this list (the node will become the list's first element).
+	 *
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addFirst(MemoryBlock block) {
+		add(0, block);
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and inserts it
+	 * right before the given node of this list, in O(log n) time.
+	 *
+	 * @param node
+	 *        a node of this list
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 * @return the new node
+	 */
+	public Node addBefore(Node node, MemoryBlock block) {
+		int index = indexOfNode(node);
+		add(index, block);
+		return node.prev;
+	}
+
+	/**
+	 * Creates a new node that points to the given memory block, and inserts it
+	 * right after the given node of this list, in O(log n) time.
+	 *
+	 * @param node
+	 *        a node of this list
+	 * @param block
+	 *        the memory block to be inserted into the list
+	 * @return the new node
+	 */
+	public Node addAfter(Node node, MemoryBlock block) {
+		int index = indexOfNode(node);
+		add(index + 1, block);
+		return node.next;
+	}
+
+	/**
+	 * Gets the memory block located at the given index in this list.
+	 *
+	 * @param index
+	 *        the index of the retrieved memory block
+	 * @return the memory block at the given index
+	 * @throws IllegalArgumentException
+	 *         if index is negative or >= size
+	 */
+	public MemoryBlock getBlock(int index) {
+		return getNode(index).block;
+	}
+
+	/**
+	 * Gets the index of the node pointing to the given memory block.
+	 * The blocks are compared by value, so this method scans the list.
+	 *
+	 * @param block
+	 *        the given memory block
+	 * @return the index of the block, or -1 if the block is not in this list
+	 */
+	public int indexOf(MemoryBlock block) {
+		int index = 0;
+		for (Node current = first; current != null; current = current.next) {
+			if (current.block.equals(block)) return index;
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the given node from this list, in O(log n) time.
+	 * A node that does not belong to this list is looked up by its block.
+	 *
+	 * @param node
+	 *        the node that will be removed from this list
+	 */
+	public void remove(Node node) {
+		if (!contains(node)) {
+			remove(node.block);
+			return;
+		}
+		remove(indexOfNode(node));
+	}
+
+	/**
+	 * Removes from this list the node which is located at the given index, in O(log n) time.
+	 *
+	 * @param index the location of the node that has to be removed.
+	 * @throws IllegalArgumentException
+	 *         if index is negative or >= size
+	 */
+	public void remove(int index) {
+		if (index < 0 || index >= getSize()) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size - 1");
+		}
+		split(root, index);
+		TreeNode left = splitLeft;
+		split(splitRight, 1);
+		TreeNode removed = splitLeft;
+		root = merge(left, splitRight);
+		if (root != null) root.parent = null;
+		// Unlinks the removed node from the list order
+		if (removed.prev == null) first = removed.next;
+		else removed.prev.next = removed.next;
+		if (removed.next == null) last = removed.prev;
+		else removed.next.prev = removed.prev;
+		removed.prev = null;
+		removed.parent = null;
+	}
+
+	/**
+	 * Removes from this list the node pointing to the given memory block.
+	 *
+	 * @param block the memory block that should be removed from the list
+	 * @throws IllegalArgumentException
+	 *         if the given memory block is not in this list
+	 */
+	public void remove(MemoryBlock block) {
+		int index = indexOf(block);
+		if (index == -1) {
+			throw new IllegalArgumentException("index must be between 0 and size");
+		}
+		remove(index);
+	}
+
+	/**
+	 * Returns an iterator over this list, starting with the first element.
+	 */
+	public ListIterator iterator() {
+		return new ListIterator(first);
+	}
+
+	/**
+	 * A textual representation of this list, for debugging.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (Node current = first; current != null; current = current.next) {
+			str.append(current.block).append(' ');
+		}
+		return str.toString();
+	}
+
+	// Returns true if the given node is a node of this list's tree
+	private boolean contains(Node node) {
+		if (!(node instanceof TreeNode)) return false;
+		TreeNode current = (TreeNode) node;
+		while (current.parent != null) {
+			current = current.parent;
+		}
+		return current == root;
+	}
+
+	// Returns the index of the given node of this list, by climbing to the root
+	private int indexOfNode(Node node) {
+		if (!contains(node)) {
+			throw new IllegalArgumentException("node is not in this list");
+		}
+		TreeNode current = (TreeNode) node;
+		int index = count(current.left);
+		while (current.parent != null) {
+			if (current == current.parent.right) {
+				index += count(current.parent.left) + 1;
+			}
+			current = current.parent;
+		}
+		return index;
+	}
+
+	// Splits the given tree into its first k nodes (splitLeft) and the rest (splitRight)
+	private void split(TreeNode tree, int k) {
+		if (tree == null) {
+			splitLeft = null;
+			splitRight = null;
+			return;
+		}
+		if (count(tree.left) < k) {
+			split(tree.right, k - count(tree.left) - 1);
+			tree.right = splitLeft;
+			update(tree);
+			splitLeft = tree;
+		} else {
+			split(tree.left, k);
+			tree.left = splitRight;
+			update(tree);
+			splitRight = tree;
+		}
+		if (splitLeft != null) splitLeft.parent = null;
+		if (splitRight != null) splitRight.parent = null;
+	}
+
+	// Merges two trees, where all the nodes of a precede all the nodes of b
+	private TreeNode merge(TreeNode a, TreeNode b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority >= b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	// Recomputes the subtree size of the given tree node, and the parents of its children
+	private static void update(TreeNode node) {
+		node.count = 1 + count(node.left) + count(node.right);
+		if (node.left != null) node.left.parent = node;
+		if (node.right != null) node.right.parent = node;
+	}
+
+	private static int count(TreeNode node) {
+		return (node == null) ? 0 : node.count;
+	}
+
+	// Returns the next random priority
+	private int nextPriority() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+}
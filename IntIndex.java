@@ -0,0 +1,148 @@
+/**
+ * Represents a hash index from int keys to non-negative int values, such as from
+ * addresses to slots of a BlockStore, or to slots of the node array of an AddressIndex.
+ * It uses open addressing with linear probing: all the entries live in two parallel
+ * arrays, and a removed entry is filled by shifting back the entries that follow it,
+ * so no tombstones are left behind. Both keys and values are primitive, so the index
+ * holds no objects besides its two arrays.
+ * Lookups, insertions and removals take constant expected time.
+ */
+public class IntIndex {
+
+	/** The value that get and remove return for a key that is not in the index. */
+	public static final int NONE = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;   // the keys
+	private int[] values; // the values, or NONE in empty slots
+	private int size;     // number of entries in this index
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public IntIndex() {
+		keys = new int[MIN_CAPACITY];
+		values = new int[MIN_CAPACITY];
+		java.util.Arrays.fill(values, NONE);
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of entries in this index.
+	 * @return The number of entries.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the value that is stored with the given key.
+	 *
+	 * @param key
+	 *        the given key
+	 * @return the value of the key, or NONE if the key is not in this index
+	 */
+	public int get(int key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); values[i] != NONE; i = (i + 1) & mask) {
+			if (keys[i] == key) return values[i];
+		}
+		return NONE;
+	}
+
+	/**
+	 * Stores the given value with the given key, replacing the value
+	 * that was stored with this key before, if any.
+	 *
+	 * @param key
+	 *        the given key
+	 * @param value
+	 *        the value to store, which must not be negative
+	 * @throws IllegalArgumentException
+	 *         if the value is negative
+	 */
+	public void put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative");
+		}
+		if (2 * (size + 1) > keys.length) resize(2 * keys.length);
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (values[i] != NONE) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	/**
+	 * Removes the given key from this index.
+	 *
+	 * @param key
+	 *        the given key
+	 * @return the value that was stored with the key, or NONE if the key was not in this index
+	 */
+	public int remove(int key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (values[i] != NONE && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		int removed = values[i];
+		if (removed == NONE) return NONE;
+		// Shifts back the entries of the probe sequence, so that no gap is left in it
+		int gap = i;
+		for (int j = (gap + 1) & mask; values[j] != NONE; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			// the entry at j may fill the gap unless its home slot lies cyclically in (gap, j]
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = NONE;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Removes all the entries from this index.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(values, NONE);
+		size = 0;
+	}
+
+	// Rehashes all the entries into arrays of the given capacity (a power of two)
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		java.util.Arrays.fill(values, NONE);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != NONE) {
+				int j = slot(oldKeys[i], mask);
+				while (values[j] != NONE) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	// Returns the home slot of the given key (Fibonacci hashing)
+	private static int slot(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
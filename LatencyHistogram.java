@@ -0,0 +1,160 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Represents a histogram of non-negative long values, such as latencies in nanoseconds or
+ * scan depths, that many threads can record into at the same time without locks.
+ * <p>
+ * The buckets are logarithmic: each power of two is split into 16 equal sub-buckets, so a
+ * value is kept with a relative error of at most 1/16 (values below 16 are kept exactly),
+ * and the whole range of long fits in less than a thousand buckets. Recording a value
+ * computes its bucket with a few bit operations and increments the bucket's counter
+ * atomically, so it takes constant time and creates no objects.
+ * <p>
+ * Queries read the counters one by one, while other threads may keep recording, so
+ * a query that runs concurrently with recording sees some recent values and not others.
+ */
+public class LatencyHistogram {
+
+	// The number of bits that select a sub-bucket within a power of two
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the given value.
+	 *
+	 * @param value
+	 *        the value, which is treated as 0 if it is negative
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(bucketOf(value));
+		total.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 * @return The largest recorded value, or 0 if no value was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 * @return The mean of the recorded values, or 0 if no value was recorded.
+	 */
+	public double getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : (double) total.get() / count;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of the recorded values lie: for
+	 * example, percentile(0.99) is the 99th percentile. The result is the upper end of the
+	 * bucket that holds the percentile (but no more than the largest value), so it is at
+	 * most 1/16 above the exact percentile.
+	 *
+	 * @param fraction
+	 *        the fraction, between 0 and 1
+	 * @return the percentile, or 0 if no value was recorded
+	 * @throws IllegalArgumentException
+	 *         if the fraction is not between 0 and 1
+	 */
+	public long percentile(double fraction) {
+		if (!(fraction >= 0 && fraction <= 1)) {
+			throw new IllegalArgumentException("fraction must be between 0 and 1");
+		}
+		long count = getCount();
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(upperBound(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets the median of the recorded values.
+	 * @return The 50th percentile.
+	 */
+	public long getP50() {
+		return percentile(0.5);
+	}
+
+	/**
+	 * Gets the 99th percentile of the recorded values.
+	 * @return The 99th percentile.
+	 */
+	public long getP99() {
+		return percentile(0.99);
+	}
+
+	/**
+	 * Gets the 99.9th percentile of the recorded values.
+	 * @return The 99.9th percentile.
+	 */
+	public long getP999() {
+		return percentile(0.999);
+	}
+
+	/**
+	 * Removes all the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * A textual representation of the histogram's summary, for debugging purposes.
+	 */
+	public String toString() {
+		return "count " + getCount() + ", mean " + String.format("%.1f", getMean())
+				+ ", p50 " + getP50() + ", p99 " + getP99() + ", p999 " + getP999() + ", max " + getMax();
+	}
+
+	// Returns the bucket of the given non-negative value
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Returns the largest value of the given bucket
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		long lower = (SUB_BUCKETS + sub) * width;
+		return lower + width - 1;
+	}
+}
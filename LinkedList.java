@@ -1,5 +1,8 @@
 /**
  * Represents a list of Nodes. 
+ * The list is doubly linked: each node points to the next node and to the previous one,
+ * so a node that is already at hand can be removed, or have a node inserted next to it,
+ * in O(1) time.
  */
 public class LinkedList {
 
@@ -42,6 +45,7 @@ public class LinkedList {
 
     /**
      * Gets the node located at the given index in this list.
+     * The list is walked from its first node or from its last node, whichever is closer.
      *
      * @param index
      *        the index of the node to retrieve, between 0 and size - 1
@@ -55,12 +59,18 @@ public class LinkedList {
 			throw new IllegalArgumentException(
 					"index must be between 0 and size");
 		}
-		if (index == size - 1) return last;
-		ListIterator iterator = new ListIterator(first);
-		for (int i = 0; i < index; i++){
-			iterator.next();
+		if (index < size / 2) {
+			ListIterator iterator = new ListIterator(first);
+			for (int i = 0; i < index; i++){
+				iterator.next();
+			}
+			return iterator.current;
 		}
-		return iterator.current;
+		Node current = last;
+		for (int i = size - 1; i > index; i--){
+			current = current.prev;
+		}
+		return current;
 	
 }
 
@@ -97,18 +107,67 @@ public class LinkedList {
 			addLast(block);
 		}
 		else {
-			Node newNode = new Node(block);
-			ListIterator iterator = new ListIterator(first);
-			for (int i = 0; i < index - 1; i++){
-				iterator.next();
-			}
-			newNode.next = iterator.current.next;
-			iterator.current.next = newNode;
-			size++;
+			addBefore(getNode(index), block);
 		}
 	
     }
 
+    /**
+     * Creates a new node that points to the given memory block, and inserts it
+     * right before the given node of this list, in O(1) time.
+     *
+     * @param node
+     *        a node of this list
+     * @param block
+     *        the memory block to be inserted into the list
+     * @return the new node
+     * @throws IllegalArgumentException
+     *         if the given node is not a node of this list
+     */
+    public Node addBefore(Node node, MemoryBlock block) {
+        checkMember(node);
+        if (node == first) {
+            addFirst(block);
+            return first;
+        }
+        Node newNode = new Node(block);
+        newNode.list = this;
+        newNode.prev = node.prev;
+        newNode.next = node;
+        node.prev.next = newNode;
+        node.prev = newNode;
+        size++;
+        return newNode;
+    }
+
+    /**
+     * Creates a new node that points to the given memory block, and inserts it
+     * right after the given node of this list, in O(1) time.
+     *
+     * @param node
+     *        a node of this list
+     * @param block
+     *        the memory block to be inserted into the list
+     * @return the new node
+     * @throws IllegalArgumentException
+     *         if the given node is not a node of this list
+     */
+    public Node addAfter(Node node, MemoryBlock block) {
+        checkMember(node);
+        if (node == last) {
+            addLast(block);
+            return last;
+        }
+        Node newNode = new Node(block);
+        newNode.list = this;
+        newNode.prev = node;
+        newNode.next = node.next;
+        node.next.prev = newNode;
+        node.next = newNode;
+        size++;
+        return newNode;
+    }
+
     /**
      * Creates a new node that points to the given memory block, and adds it
      * to the end of this list (the node will become the list's last element).
@@ -117,17 +176,29 @@ public class LinkedList {
      *        the given memory block
      */
     public void addLast(MemoryBlock block) {
-        Node newNode = new Node(block);
+        linkLast(new Node(block));
+    }
+
+    /**
+     * Adds the given node, which must not be in any list, to the end of this list.
+     * Unlike addLast, no new node is created, so a node that was removed from one
+     * list can be moved to another without allocating.
+     *
+     * @param node
+     *        the node to add
+     */
+    void linkLast(Node node) {
+		node.list = this;
+		node.next = null;
+		node.prev = last;
 		if (first == null) {
-			first = newNode;
-			last = newNode;
+			first = node;
 		}
 		else {
-			last.next =newNode;
-			last = newNode;
+			last.next = node;
 		}
+		last = node;
 		size++;
-
     }
 
     /**
@@ -139,7 +210,9 @@ public class LinkedList {
      */
     public void addFirst(MemoryBlock block) {
         Node newNode = new Node(block);
+		newNode.list = this;
 		if (first == null) last = newNode;
+		else first.prev = newNode;
 		newNode.next = first;
 		first = newNode;
 		size++;
@@ -187,12 +260,22 @@ public class LinkedList {
 
     /**
      * Removes the given node from this list.
+     * <p>
+     * A node of this list is unlinked through its previous and next pointers, so the
+     * removal time is O(1). Any other node (one of another list, or of no list) is looked
+     * up in this list by its block, as remove(MemoryBlock) does.
      *
      * @param node
      *        the node that will be removed from this list
+     * @throws IllegalArgumentException
+     *         if the node is not in this list and its block is not in this list either
      */
     public void remove(Node node) {
-        remove(node.block);
+        if (node.list != this) {
+            remove(node.block);
+            return;
+        }
+        unlink(node);
     }
 
     /**
@@ -207,17 +290,7 @@ public class LinkedList {
 			throw new IllegalArgumentException(
 					"index must be between 0 and size - 1");
 		}
-		if (index == 0){
-			first = first.next;
-			if (first == null) last = null;
-		}
-		else {
-			Node prevNode = getNode(index - 1);
-			Node current = prevNode.next;
-			prevNode.next = current.next;
-			if (current == last) last = prevNode;
-		}
-		size--;
+		unlink(getNode(index));
 
     }
 
@@ -229,14 +302,41 @@ public class LinkedList {
      *         if the given memory block is not in this list
      */
     public void remove(MemoryBlock block) {
-        int index = indexOf(block);
-		if (index == -1){
-			throw new IllegalArgumentException("index must be between 0 and size");
+        ListIterator iterator = new ListIterator(first);
+		while (iterator.hasNext()){
+			if (iterator.current.block.equals(block)) {
+				unlink(iterator.current);
+				return;
+			}
+			iterator.next();
 		}
-		remove(index);
+		throw new IllegalArgumentException("index must be between 0 and size");
 
     }
 
+    /**
+     * Unlinks the given node from this list, in O(1) time. The node keeps its
+     * next pointer, so an iterator that stands on it can still advance.
+     */
+    private void unlink(Node node) {
+        Node prevNode = node.prev;
+        Node nextNode = node.next;
+        if (prevNode == null) first = nextNode;
+        else prevNode.next = nextNode;
+        if (nextNode == null) last = prevNode;
+        else nextNode.prev = prevNode;
+        node.prev = null;
+        node.list = null;
+        size--;
+    }
+
+    // Throws an exception if the given node is not a node of this list
+    private void checkMember(Node node) {
+        if (node.list != this) {
+            throw new IllegalArgumentException("node is not in this list");
+        }
+    }
+
     /**
      * Returns an iterator over this list, starting with the first element.
      */
@@ -248,13 +348,11 @@ public class LinkedList {
      * A textual representation of this list, for debugging.
      */
     public String toString() {
-        String str = "";
-		ListIterator iterator = new ListIterator(first);
-		while (iterator.hasNext()){
-			str += iterator.current.block.toString() + " "; 
-			iterator.next();
+        StringBuilder str = new StringBuilder();
+		for (Node current = first; current != null; current = current.next) {
+			str.append(current.block).append(' ');
 		}
-		return str;
+		return str.toString();
 
     }
 }
@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents a free list of a fixed number of slots, numbered from 0, that many threads
+ * can pop and push at the same time without locks (a Treiber stack). Both operations read
+ * the top of the stack and then replace it with a single compare-and-set, which is retried
+ * if another thread changed the top in between, so no thread ever waits for a lock held
+ * by another one.
+ * <p>
+ * The links between the slots are kept in an int array, and the top of the stack is kept
+ * together with a tag, in one long: the tag in the upper 32 bits and the top slot in the
+ * lower 32 bits. Every successful pop and push increments the tag. This prevents the ABA
+ * problem: a thread that read the top slot s and its successor, and was then delayed while
+ * others popped s, popped its successor and pushed s back, finds a different tag, so its
+ * compare-and-set fails instead of installing the successor that is no longer free.
+ * <p>
+ * Every slot also has a state, free or taken. pop marks the slot it removed as taken with
+ * a plain write, since winning the compare-and-set on the head already gives the thread
+ * the slot. push marks the slot as free with a compare-and-set, so a push of a slot that
+ * is not taken (a slot pushed twice, or never popped) fails and is rejected, and cannot
+ * link the slot into the stack twice.
+ */
+public class LockFreeFreeList {
+
+	/** The slot that pop returns when the list is empty. */
+	public static final int NONE = -1;
+
+	private final AtomicIntegerArray next; // next.get(s) is the slot below slot s in the stack
+	private final AtomicLong head;         // the tag and the top slot of the stack
+	private final AtomicIntegerArray taken; // taken.get(s) is 1 if slot s was popped and not pushed back
+
+	/**
+	 * Constructs a free list of the given number of slots, which are all free:
+	 * pop returns them in increasing order.
+	 *
+	 * @param capacity
+	 *        the number of slots
+	 * @throws IllegalArgumentException
+	 *         if capacity is negative
+	 */
+	public LockFreeFreeList(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		next = new AtomicIntegerArray(capacity);
+		taken = new AtomicIntegerArray(capacity);
+		for (int s = 0; s < capacity; s++) {
+			next.set(s, (s + 1 < capacity) ? s + 1 : NONE);
+		}
+		head = new AtomicLong(pack(0, (capacity > 0) ? 0 : NONE));
+	}
+
+	/**
+	 * Gets the number of slots of this free list.
+	 * @return The number of slots.
+	 */
+	public int getCapacity() {
+		return next.length();
+	}
+
+	/**
+	 * Removes a free slot from this list, without locking.
+	 *
+	 * @return the slot, or NONE if no slot is free
+	 */
+	public int pop() {
+		while (true) {
+			long h = head.get();
+			int top = (int) h;
+			if (top == NONE) return NONE;
+			int below = next.get(top);
+			if (head.compareAndSet(h, pack(tag(h) + 1, below))) {
+				taken.set(top, 1);
+				return top;
+			}
+		}
+	}
+
+	/**
+	 * Returns the given slot, which must have been popped from this list
+	 * and must not have been pushed back since, to this list, without locking.
+	 *
+	 * @param s
+	 *        the slot
+	 * @throws IllegalArgumentException
+	 *         if the slot is not a slot of this list, or it is free
+	 */
+	public void push(int s) {
+		if (s < 0 || s >= next.length()) {
+			throw new IllegalArgumentException("slot must be between 0 and capacity - 1");
+		}
+		if (!taken.compareAndSet(s, 1, 0)) {
+			throw new IllegalArgumentException("slot is already free");
+		}
+		while (true) {
+			long h = head.get();
+			next.set(s, (int) h);
+			if (head.compareAndSet(h, pack(tag(h) + 1, s))) return;
+		}
+	}
+
+	// Packs a tag and a slot into one long
+	private static long pack(int tag, int slot) {
+		return ((long) tag << 32) | (slot & 0xFFFFFFFFL);
+	}
+
+	private static int tag(long h) {
+		return (int) (h >>> 32);
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* This program checks that a LockFreeFreeList, and a ConcurrentMemorySpace whose small
+ * blocks come from one, never hand out the same block to two threads at the same time.
+ *
+ * Several threads pop (malloc) and push (free) blocks in a tight loop. Every block has an
+ * owner cell, which a thread claims with a compare-and-set right after it got the block,
+ * and clears right before it returns the block. If the claim fails, the block was handed
+ * out twice, and the failure is counted. At the end, every block must be free again.
+ *
+ * Usage: java LockFreeFreeListStressTest [threads opsPerThread]
+ */
+public class LockFreeFreeListStressTest {
+
+	private static final int SLOTS = 64;
+	private static final int HELD = 8;  // blocks that each thread holds at a time
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		int ops = 1_000_000;
+		if (args.length == 2) {
+			threads = Integer.parseInt(args[0]);
+			ops = Integer.parseInt(args[1]);
+		}
+		testFreeList(threads, ops);
+		testSlab(threads, ops);
+		System.out.println("All stress tests completed successfully!");
+	}
+
+	/** The operations that the stress test calls. */
+	private interface Allocator {
+		int malloc();
+		void free(int block);
+	}
+
+	private static void testFreeList(int threads, int ops) throws InterruptedException {
+		LockFreeFreeList list = new LockFreeFreeList(SLOTS);
+		Allocator allocator = new Allocator() {
+			public int malloc() { return list.pop(); }
+			public void free(int block) { list.push(block); }
+		};
+		stress("free list", allocator, SLOTS, -1, threads, ops);
+		// Every slot must be free again, exactly once
+		boolean[] seen = new boolean[SLOTS];
+		for (int i = 0; i < SLOTS; i++) {
+			int s = list.pop();
+			if (s == LockFreeFreeList.NONE || seen[s]) {
+				throw new AssertionError("free list: slot lost or duplicated after the stress test");
+			}
+			seen[s] = true;
+		}
+		if (list.pop() != LockFreeFreeList.NONE) {
+			throw new AssertionError("free list: more slots than its capacity after the stress test");
+		}
+	}
+
+	private static void testSlab(int threads, int ops) throws InterruptedException {
+		int blockLength = 4;
+		int arenaSpace = threads * HELD * blockLength;
+		int maxSize = arenaSpace + SLOTS * blockLength;
+		// The arenas can hold all the blocks of all the threads, so malloc never fails
+		ConcurrentMemorySpace memory = new ConcurrentMemorySpace(
+				maxSize, threads, "first-fit", true, blockLength, SLOTS);
+		Allocator allocator = new Allocator() {
+			public int malloc() { return memory.malloc(blockLength); }
+			public void free(int block) { memory.free(block); }
+		};
+		stress("slab", allocator, maxSize, blockLength, threads, ops);
+	}
+
+	// Runs the threads, and fails if a block was handed out twice
+	private static void stress(String name, Allocator allocator, int blocks, int blockLength,
+			int threads, int ops) throws InterruptedException {
+		AtomicIntegerArray owners = new AtomicIntegerArray(blocks);
+		AtomicLong duplicates = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int id = t + 1;
+			workers[t] = new Thread(() -> {
+				int[] held = new int[HELD];
+				int count = 0;
+				int seed = 0x2545F491 * id;
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < ops; i++) {
+					seed ^= seed << 13;
+					seed ^= seed >>> 17;
+					seed ^= seed << 5;
+					if (count < HELD && (count == 0 || (seed & 1) == 0)) {
+						int block = allocator.malloc();
+						if (block < 0) continue;
+						if (!owners.compareAndSet(block, 0, id)) duplicates.incrementAndGet();
+						held[count++] = block;
+					} else {
+						int block = held[--count];
+						owners.set(block, 0);
+						allocator.free(block);
+					}
+				}
+				while (count > 0) {
+					int block = held[--count];
+					owners.set(block, 0);
+					allocator.free(block);
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (duplicates.get() != 0) {
+			throw new AssertionError(name + ": " + duplicates.get() + " blocks were handed out twice");
+		}
+		System.out.println(name + ": " + threads + " threads x " + ops + " ops, no block handed out twice");
+	}
+}
@@ -1,16 +1,66 @@
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
 /**
  * Represents a managed memory space. The memory space manages a list of allocated 
  * memory blocks, and a list free memory blocks. The methods "malloc" and "free" are 
  * used, respectively, for creating new blocks and recycling existing blocks.
  */
 public class MemorySpace {
+
+	// The first bytes of a snapshot, and the version of its format
+	private static final byte[] SNAPSHOT_MAGIC = { 'M', 'S', 'S', 'N' };
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// Orders nodes by the base addresses of their blocks
+	private static final Comparator<Node> BY_BASE_ADDRESS =
+			(a, b) -> Integer.compare(a.block.baseAddress, b.block.baseAddress);
 	
 	// A list of the memory blocks that are presently allocated
 	private LinkedList allocatedList;
 
+	// An index from the base address of each allocated block to its node in the allocatedList.
+	// Blocks of length 0 are not in the index, since they may share their base address
+	// with another allocated block; they are counted instead.
+	private AddressIndex allocatedIndex;
+	private int zeroLengthBlocks;
+
+	// The number of free blocks that the last mallocAligned examined, for the metrics
+	private int alignedScanDepth;
+
 	// A list of memory blocks that are presently free
 	private LinkedList freeList;
 
+	// The placement policy, which selects the free block that malloc carves from
+	private AllocationPolicy policy;
+
+	// Boundary tags: indexes from the first address, and from the address just past
+	// the end, of each non-empty free block to its node in the freeList
+	private AddressIndex freeStarts;
+	private AddressIndex freeEnds;
+
+	// If true, free merges a released block with its free neighbors right away
+	private boolean coalesceOnFree;
+
+	// A stack (linked through next) of nodes that left both lists, kept for reuse
+	private Node spareNodes;
+
+	// The size of the memory space
+	private int maxSize;
+
+	// Live statistics of the free and allocated blocks
+	private MemorySpaceStats stats;
+
+	// The instrumentation that malloc, free and defrag record into, or null if it is disabled
+	private MemorySpaceMetrics metrics;
+
+	// The backing store: words[a] is the content of the word at address a, or null if the
+	// memory space only tracks address ranges
+	private int[] words;
+
 	/**
 	 * Constructs a new managed memory space of a given maximal size.
 	 * 
@@ -18,21 +68,79 @@ public class MemorySpace {
 	 *            the size of the memory space to be managed
 	 */
 	public MemorySpace(int maxSize) {
+		this(maxSize, new FirstFitPolicy());
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, in which malloc
+	 * places blocks according to the given policy: for example, a FirstFitPolicy,
+	 * NextFitPolicy, BestFitPolicy, WorstFitPolicy or SegregatedFitPolicy.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 */
+	public MemorySpace(int maxSize, AllocationPolicy policy) {
+		this(maxSize, policy, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size. If coalesceOnFree is
+	 * true, free merges each released block with the free blocks that are physically next
+	 * to it, so the free list never holds two adjacent blocks and defrag has nothing to do.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 */
+	public MemorySpace(int maxSize, AllocationPolicy policy, boolean coalesceOnFree) {
+		this(maxSize, policy, coalesceOnFree, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, which also holds the
+	 * contents of its words if backed is true. The words of a backed memory space are read
+	 * and written by load, store, memcpy, memmove and memset, and realloc carries them over
+	 * when it relocates a block.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @param backed
+	 *            true if the memory space should have a backing store of maxSize words
+	 */
+	public MemorySpace(int maxSize, AllocationPolicy policy, boolean coalesceOnFree, boolean backed) {
 		// initiallizes an empty list of allocated blocks.
 		allocatedList = new LinkedList();
+		allocatedIndex = new AddressIndex();
 	    // Initializes a free list containing a single block which represents
 	    // the entire memory. The base address of this single initial block is
 	    // zero, and its length is the given memory size.
 		freeList = new LinkedList();
-		freeList.addLast(new MemoryBlock(0, maxSize));
+		freeStarts = new AddressIndex();
+		freeEnds = new AddressIndex();
+		this.policy = policy;
+		this.coalesceOnFree = coalesceOnFree;
+		this.maxSize = maxSize;
+		stats = new MemorySpaceStats(maxSize, allocatedList);
+		words = backed ? new int[maxSize] : null;
+		addFree(newNode(0, maxSize));
 	}
 
 	/**
 	 * Allocates a memory block of a requested length (in words). Returns the
 	 * base address of the allocated block, or -1 if unable to allocate.
 	 * 
-	 * This implementation scans the freeList, looking for the first free memory block 
-	 * whose length equals at least the given length. If such a block is found, the method 
+	 * This implementation asks the placement policy for a free memory block whose length 
+	 * equals at least the given length. The default, first-fit policy scans the freeList and 
+	 * finds the first such block. If such a block is found, the method 
 	 * performs the following operations:
 	 * 
 	 * (1) A new memory block is constructed. The base address of the new block is set to
@@ -58,50 +166,708 @@ public class MemorySpace {
 	 * @return the base address of the allocated block, or -1 if unable to allocate
 	 */
 	public int malloc(int length) {		
-		ListIterator itr = new ListIterator(freeList.getFirst());
-		while(itr.hasNext()){
-			MemoryBlock current = itr.current.block;
-			if (current.length >= length){
-				MemoryBlock newMemoryBlock = new MemoryBlock(current.baseAddress, length);
-				int value = current.baseAddress;
-				allocatedList.addLast(newMemoryBlock);
-				if (current.length == length){
-					freeList.remove(current);
-				}
-				current.baseAddress += length;
-            	current.length -= length;
-				return value;
+		if (metrics != null) return mallocRecorded(length);
+		Node node = policy.select(freeList, length);
+		return (node == null) ? -1 : allocate(node, length);
+	}
+
+	// Performs malloc, and records its latency and scan depth
+	private int mallocRecorded(int length) {
+		long start = System.nanoTime();
+		Node node = policy.select(freeList, length);
+		int address = (node == null) ? -1 : allocate(node, length);
+		metrics.getMallocLatency().record(System.nanoTime() - start);
+		metrics.getMallocScanDepth().record(policy.lastScanDepth());
+		return address;
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), whose base address is a
+	 * multiple of the given alignment, and returns its base address, or -1 if unable to allocate.
+	 * 
+	 * The placement policy is first asked for a free block of length + alignment - 1 words,
+	 * which is certain to hold an aligned block of the requested length. If there is none, the
+	 * freeList is scanned for the first free block that holds one anyway. Each candidate block
+	 * is checked in constant time, by rounding its base address up to the alignment.
+	 * The block is carved from the first aligned address of the found free block, and the
+	 * padding before it, if any, is returned to the free list as a free block of its own.
+	 * The call is recorded in the metrics as a malloc, whose scan depth counts the free
+	 * blocks that the policy and the scan examined.
+	 * 
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @param alignment
+	 *        the alignment of the base address: a power of two, such as 8, 64 or 4096
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 * @throws IllegalArgumentException
+	 *         if alignment is not a positive power of two
+	 */
+	public int mallocAligned(int length, int alignment) {
+		if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+			throw new IllegalArgumentException("alignment must be a positive power of two");
+		}
+		if (alignment == 1) return malloc(length);
+		if (metrics == null) return allocateAligned(length, alignment);
+		long start = System.nanoTime();
+		int address = allocateAligned(length, alignment);
+		metrics.getMallocLatency().record(System.nanoTime() - start);
+		metrics.getMallocScanDepth().record(alignedScanDepth);
+		return address;
+	}
+
+	// Performs mallocAligned for an alignment above 1, and sets alignedScanDepth
+	private int allocateAligned(int length, int alignment) {
+		alignedScanDepth = 0;
+		if (length > maxSize) return -1;
+		// Computed as a long, since length + alignment - 1 may overflow an int
+		long padded = (long) length + alignment - 1;
+		Node node = null;
+		if (padded <= maxSize) {
+			node = policy.select(freeList, (int) padded);
+			alignedScanDepth = policy.lastScanDepth();
+		}
+		if (node == null) {
+			node = freeList.getFirst();
+			while (node != null && !holdsAligned(node.block, length, alignment)) {
+				alignedScanDepth++;
+				node = node.next;
+			}
+			if (node == null) return -1;
+			alignedScanDepth++;
+		}
+		MemoryBlock block = node.block;
+		int base = block.baseAddress;
+		int aligned = alignUp(base, alignment);
+		if (aligned != base) {
+			// The free node moves up to the aligned address, and the padding becomes a new free block
+			resizeFree(node, aligned, block.length - (aligned - base));
+			addFree(newNode(base, aligned - base));
+		}
+		return allocate(node, length);
+	}
+
+	// Returns true if the given free block holds a block of the given length at an aligned address
+	private static boolean holdsAligned(MemoryBlock block, int length, int alignment) {
+		long end = (long) block.baseAddress + block.length;
+		long aligned = ((long) block.baseAddress + alignment - 1) & -(long) alignment;
+		return aligned + length <= end;
+	}
+
+	// Rounds the given address up to a multiple of the given alignment (a power of two)
+	private static int alignUp(int address, int alignment) {
+		return (address + alignment - 1) & -alignment;
+	}
+
+	/**
+	 * Allocates a batch of memory blocks, whose lengths are given, and stores the base
+	 * address of the block of lengths[i] in outAddresses[i], or -1 if unable to allocate it.
+	 * The result is the same as calling malloc for each length in turn.
+	 * 
+	 * Under the first-fit policy, the whole batch is served in a single traversal of the
+	 * freeList, instead of a scan from the head of the list per block: each free block
+	 * that is reached is carved for the pending requests that still fit in it, in their
+	 * order. Since first-fit gives every request the first free block that fits, and the
+	 * traversal never returns to a block it has passed, the placement is exactly that of
+	 * the one-at-a-time calls. Under the other policies, the blocks are allocated one by one.
+	 * 
+	 * Every request of the batch is recorded in the metrics as a malloc. In the single
+	 * traversal, each request is recorded with an equal share of the batch's latency, and
+	 * with the number of free blocks that the traversal had reached when it was served.
+	 * 
+	 * @param lengths
+	 *        the lengths (in words) of the memory blocks that have to be allocated
+	 * @param outAddresses
+	 *        receives the base addresses of the allocated blocks, or -1 for those
+	 *        that could not be allocated
+	 * @return the number of blocks that were allocated
+	 * @throws IllegalArgumentException
+	 *         if outAddresses is shorter than lengths
+	 */
+	public int mallocBatch(int[] lengths, int[] outAddresses) {
+		int n = lengths.length;
+		if (outAddresses.length < n) {
+			throw new IllegalArgumentException("outAddresses must be at least as long as lengths");
+		}
+		int allocatedCount = 0;
+		if (!(policy instanceof FirstFitPolicy)) {
+			for (int i = 0; i < n; i++) {
+				outAddresses[i] = malloc(lengths[i]);
+				if (outAddresses[i] != -1) allocatedCount++;
+			}
+			return allocatedCount;
+		}
+		// The indexes of the requests that were not served yet, in their order
+		int[] pending = new int[n];
+		Node[] allocated = new Node[n];
+		int minLength = Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			outAddresses[i] = -1;
+			pending[i] = i;
+			minLength = Math.min(minLength, lengths[i]);
+		}
+		long start = (metrics == null) ? 0 : System.nanoTime();
+		int visited = 0;  // the number of free blocks that the traversal reached
+		int pendingCount = n;
+		Node current = freeList.getFirst();
+		while (current != null && pendingCount > 0) {
+			Node next = current.next;
+			visited++;
+			if (current.block.length >= minLength) {
+				int kept = 0;
+				boolean free = true;
+				minLength = Integer.MAX_VALUE;
+				for (int k = 0; k < pendingCount; k++) {
+					int i = pending[k];
+					if (free && current.block.length >= lengths[i]) {
+						// An exact fit moves the node itself out of the freeList
+						free = current.block.length != lengths[i];
+						allocated[i] = carve(current, lengths[i]);
+						outAddresses[i] = allocated[i].block.baseAddress;
+						allocatedCount++;
+						if (metrics != null) metrics.getMallocScanDepth().record(visited);
+					} else {
+						pending[kept++] = i;
+						minLength = Math.min(minLength, lengths[i]);
+					}
 				}
-			itr.next();
+				pendingCount = kept;
 			}
-		return -1;
+			current = next;
+		}
+		// Appends the allocated blocks in the order of the requests, as malloc would have
+		for (int i = 0; i < n; i++) {
+			if (allocated[i] != null) {
+				allocatedList.linkLast(allocated[i]);
+				indexAllocated(allocated[i]);
+			}
+		}
+		if (metrics != null) {
+			long latency = (n == 0) ? 0 : (System.nanoTime() - start) / n;
+			for (int i = 0; i < n; i++) {
+				metrics.getMallocLatency().record(latency);
+				// A request that was not served was compared with every block that the traversal reached
+				if (allocated[i] == null) metrics.getMallocScanDepth().record(visited);
+			}
+		}
+		return allocatedCount;
+	}
+
+	/**
+	 * Allocates a block of the given length from the start of the given free node's block,
+	 * and returns the base address of the allocated block.
+	 */
+	private int allocate(Node node, int length) {
+		Node allocated = carve(node, length);
+		allocatedList.linkLast(allocated);
+		indexAllocated(allocated);
+		return allocated.block.baseAddress;
+	}
+
+	// Records the given node of the allocatedList in the allocatedIndex, or counts it if it is empty
+	private void indexAllocated(Node node) {
+		if (node.block.length == 0) {
+			zeroLengthBlocks++;
+		} else {
+			allocatedIndex.put(node.block.baseAddress, node);
+		}
+	}
+
+	// Removes the given node of the allocatedList from the allocatedIndex, or from the count
+	private void unindexAllocated(Node node) {
+		if (node.block.length == 0) {
+			zeroLengthBlocks--;
+		} else {
+			allocatedIndex.remove(node.block.baseAddress);
+		}
+	}
+
+	/**
+	 * Returns the node of the first allocated block (in the allocatedList) whose base address
+	 * equals the given address, or null if there is none. The node is found through the
+	 * allocatedIndex in constant time, unless blocks of length 0 are allocated: such a block
+	 * may share its base address with another one, so then the allocatedList is scanned.
+	 */
+	private Node findAllocated(int address) {
+		if (zeroLengthBlocks == 0) return allocatedIndex.get(address);
+		for (Node current = allocatedList.getFirst(); current != null; current = current.next) {
+			if (current.block.baseAddress == address) return current;
+		}
+		return null;
+	}
+
+	/**
+	 * Carves a block of the given length from the start of the given free node's block,
+	 * and returns a node, which is in no list yet, for the carved block.
+	 * If the whole free block is carved, its node is returned; otherwise the carved block
+	 * gets a spare node, if there is one. So once the memory space has reached its peak
+	 * number of blocks, malloc allocates no objects.
+	 */
+	private Node carve(Node node, int length) {
+		MemoryBlock current = node.block;
+		int value = current.baseAddress;
+		if (current.length == length){
+			removeFree(node);
+			return node;
+		}
+		resizeFree(node, value + length, current.length - length);
+		return newNode(value, length);
 	}
 
 	/**
 	 * Frees the memory block whose base address equals the given address.
 	 * This implementation deletes the block whose base address equals the given 
 	 * address from the allocatedList, and adds it at the end of the free list. 
+	 * The block's node is found through the allocatedIndex and unlinked directly,
+	 * so freeing takes constant time regardless of the number of allocated blocks
+	 * (unless blocks of length 0 are allocated, as explained in findAllocated).
 	 * 
 	 * @param baseAddress
 	 *            the starting address of the block to freeList
 	 */
 	public void free(int address){
+		if (metrics != null) {
+			long start = System.nanoTime();
+			release(address);
+			metrics.getFreeLatency().record(System.nanoTime() - start);
+		} else {
+			release(address);
+		}
+	}
+
+	// Frees the memory block whose base address equals the given address
+	private void release(int address) {
 		if (allocatedList.getSize() == 0){
 			throw new IllegalArgumentException(
 					"index must be between 0 and size");
 		}
-		ListIterator itr = allocatedList.iterator();
-		while(itr.hasNext()){
-			MemoryBlock block = itr.current.block;
-			if (block.baseAddress == address){
-				allocatedList.remove(block);
-				freeList.addLast(block);
-				return;
+		Node node = findAllocated(address);
+		if (node == null) return;
+		unindexAllocated(node);
+		allocatedList.remove(node);
+		if (coalesceOnFree) {
+			coalesce(node);
+		} else {
+			addFree(node);
+		}
+	}
+
+	/**
+	 * Frees the memory blocks whose base addresses are given, in their order.
+	 * The result is the same as calling free for each address in turn. Each block is
+	 * found through the allocatedIndex, so no list is traversed at all.
+	 * 
+	 * @param addresses
+	 *            the starting addresses of the blocks to free
+	 * @throws IllegalArgumentException
+	 *         if all the blocks were freed before the last address is reached
+	 */
+	public void freeBatch(int[] addresses) {
+		for (int i = 0; i < addresses.length; i++) {
+			free(addresses[i]);
+		}
+	}
+
+	/**
+	 * Changes the length of the allocated block whose base address equals the given address,
+	 * and returns the block's base address after the change.
+	 * A block that shrinks stays in place, and its tail is returned to the free list (merged
+	 * with the free block that follows it, if there is one). A block that grows stays in place
+	 * if the block that physically follows it is free and long enough, since the grown block
+	 * then takes the start of that free block. Otherwise the block is relocated: a new block
+	 * is allocated by malloc, its contents are copied from the old block (if the memory space
+	 * is backed), and only then the old block is freed. If the new block cannot be allocated,
+	 * the old block is left as it was.
+	 * 
+	 * @param address
+	 *            the starting address of the block to resize
+	 * @param newLength
+	 *            the new length (in words) of the block
+	 * @return the base address of the resized block, or -1 if unable to allocate it
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated at the given address, or newLength is not positive
+	 *         (a block is released by free, not by shrinking it to length 0)
+	 */
+	public int realloc(int address, int newLength) {
+		if (newLength <= 0) {
+			throw new IllegalArgumentException("newLength must be positive");
+		}
+		Node node = findAllocated(address);
+		if (node == null) {
+			throw new IllegalArgumentException("no block is allocated at the given address");
+		}
+		MemoryBlock block = node.block;
+		if (newLength <= block.length) {
+			if (newLength < block.length) {
+				Node tail = newNode(address + newLength, block.length - newLength);
+				block.length = newLength;
+				// The tail has an allocated block on its left, so it can only merge rightwards
+				coalesce(tail);
+			}
+			return address;
+		}
+		int growth = newLength - block.length;
+		Node right = freeStarts.get(address + block.length);
+		if (right != null && right.block.length >= growth) {
+			if (right.block.length == growth) {
+				removeFree(right);
+				recycle(right);
+			} else {
+				resizeFree(right, right.block.baseAddress + growth, right.block.length - growth);
+			}
+			unindexAllocated(node);
+			block.length = newLength;
+			indexAllocated(node);
+			return address;
+		}
+		int newAddress = malloc(newLength);
+		if (newAddress != -1) {
+			if (words != null) {
+				System.arraycopy(words, address, words, newAddress, block.length);
+			}
+			free(address);
+		}
+		return newAddress;
+	}
+
+	/**
+	 * Returns the given released block to the free list, merged with its free neighbors.
+	 * The neighbors are found through the boundary tags, in constant time. A free block
+	 * that ends where the released block begins absorbs it; otherwise, a free block that
+	 * begins where the released block ends is extended downwards to cover it.
+	 * The nodes that are merged away are kept as spare nodes.
+	 */
+	private void coalesce(Node node) {
+		MemoryBlock block = node.block;
+		Node left = freeEnds.get(block.baseAddress);
+		Node right = freeStarts.get(block.baseAddress + block.length);
+		if (left != null) {
+			int length = left.block.length + block.length;
+			if (right != null) {
+				length += right.block.length;
+				removeFree(right);
+				recycle(right);
 			}
-			itr.next();
+			resizeFree(left, left.block.baseAddress, length);
+			recycle(node);
+		} else if (right != null) {
+			resizeFree(right, block.baseAddress, block.length + right.block.length);
+			recycle(node);
+		} else {
+			addFree(node);
+		}
+	}
+
+	/**
+	 * Appends the given node, which is in no list, to the free list, records it in the
+	 * boundary tags, and tells the placement policy.
+	 */
+	private void addFree(Node node) {
+		MemoryBlock block = node.block;
+		freeList.linkLast(node);
+		if (block.length > 0) {
+			freeStarts.put(block.baseAddress, node);
+			freeEnds.put(block.baseAddress + block.length, node);
+		}
+		stats.freeAdded(block.length);
+		policy.added(node);
+	}
+
+	/**
+	 * Removes the given node from the free list and the boundary tags, and tells the placement policy.
+	 */
+	private void removeFree(Node node) {
+		MemoryBlock block = node.block;
+		policy.removed(node);
+		if (block.length > 0) {
+			freeStarts.remove(block.baseAddress);
+			freeEnds.remove(block.baseAddress + block.length);
 		}
+		stats.freeRemoved(block.length);
+		freeList.remove(node);
+	}
+
+	/**
+	 * Returns a node, which is in no list, that points to a block with the given base address
+	 * and length. A spare node is reused if there is one.
+	 */
+	private Node newNode(int baseAddress, int length) {
+		Node node = spareNodes;
+		if (node == null) {
+			return new Node(new MemoryBlock(baseAddress, length));
+		}
+		spareNodes = node.next;
+		node.next = null;
+		node.block.baseAddress = baseAddress;
+		node.block.length = length;
+		return node;
+	}
+
+	/**
+	 * Keeps the given node, which has left both lists, as a spare node.
+	 */
+	private void recycle(Node node) {
+		node.prev = null;
+		node.next = spareNodes;
+		spareNodes = node;
+	}
+
+	/**
+	 * Changes the base address and the length of the given free node's block,
+	 * keeping the boundary tags up to date, and tells the placement policy.
+	 */
+	private void resizeFree(Node node, int baseAddress, int length) {
+		MemoryBlock block = node.block;
+		policy.resizing(node);
+		if (block.length > 0) {
+			freeStarts.remove(block.baseAddress);
+			freeEnds.remove(block.baseAddress + block.length);
+		}
+		stats.freeRemoved(block.length);
+		block.baseAddress = baseAddress;
+		block.length = length;
+		stats.freeAdded(length);
+		if (length > 0) {
+			freeStarts.put(baseAddress, node);
+			freeEnds.put(baseAddress + length, node);
+		}
+		policy.resized(node);
 	}
 	
+	/**
+	 * Reads a word of an allocated block.
+	 * 
+	 * @param address
+	 *            the base address of the block
+	 * @param offset
+	 *            the offset of the word within the block
+	 * @return the content of the word
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated at the given address, or the offset is outside the block
+	 * @throws IllegalStateException
+	 *         if this memory space has no backing store
+	 */
+	public int load(int address, int offset) {
+		return words()[checkedAddress(address, offset, 1)];
+	}
+
+	/**
+	 * Writes a word of an allocated block.
+	 * 
+	 * @param address
+	 *            the base address of the block
+	 * @param offset
+	 *            the offset of the word within the block
+	 * @param value
+	 *            the new content of the word
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated at the given address, or the offset is outside the block
+	 * @throws IllegalStateException
+	 *         if this memory space has no backing store
+	 */
+	public void store(int address, int offset, int value) {
+		words()[checkedAddress(address, offset, 1)] = value;
+	}
+
+	/**
+	 * Copies count words from one allocated block to another, or within a block.
+	 * As in C, the source and the destination ranges must not overlap; memmove allows that.
+	 * 
+	 * @param dstAddress
+	 *            the base address of the destination block
+	 * @param dstOffset
+	 *            the offset of the first destination word within its block
+	 * @param srcAddress
+	 *            the base address of the source block
+	 * @param srcOffset
+	 *            the offset of the first source word within its block
+	 * @param count
+	 *            the number of words to copy
+	 * @throws IllegalArgumentException
+	 *         if a range is not inside an allocated block, or the ranges overlap
+	 * @throws IllegalStateException
+	 *         if this memory space has no backing store
+	 */
+	public void memcpy(int dstAddress, int dstOffset, int srcAddress, int srcOffset, int count) {
+		int dst = checkedAddress(dstAddress, dstOffset, count);
+		int src = checkedAddress(srcAddress, srcOffset, count);
+		if (dst < src + count && src < dst + count) {
+			throw new IllegalArgumentException("the ranges of memcpy must not overlap");
+		}
+		System.arraycopy(words(), src, words, dst, count);
+	}
+
+	/**
+	 * Copies count words from one allocated block to another, or within a block. The ranges
+	 * may overlap: the destination gets the words that the source held before the copy.
+	 * 
+	 * @param dstAddress
+	 *            the base address of the destination block
+	 * @param dstOffset
+	 *            the offset of the first destination word within its block
+	 * @param srcAddress
+	 *            the base address of the source block
+	 * @param srcOffset
+	 *            the offset of the first source word within its block
+	 * @param count
+	 *            the number of words to copy
+	 * @throws IllegalArgumentException
+	 *         if a range is not inside an allocated block
+	 * @throws IllegalStateException
+	 *         if this memory space has no backing store
+	 */
+	public void memmove(int dstAddress, int dstOffset, int srcAddress, int srcOffset, int count) {
+		int dst = checkedAddress(dstAddress, dstOffset, count);
+		int src = checkedAddress(srcAddress, srcOffset, count);
+		System.arraycopy(words(), src, words, dst, count);
+	}
+
+	/**
+	 * Sets count words of an allocated block to the given value.
+	 * 
+	 * @param address
+	 *            the base address of the block
+	 * @param offset
+	 *            the offset of the first word within the block
+	 * @param count
+	 *            the number of words to set
+	 * @param value
+	 *            the new content of the words
+	 * @throws IllegalArgumentException
+	 *         if the range is not inside an allocated block
+	 * @throws IllegalStateException
+	 *         if this memory space has no backing store
+	 */
+	public void memset(int address, int offset, int count, int value) {
+		int start = checkedAddress(address, offset, count);
+		Arrays.fill(words(), start, start + count, value);
+	}
+
+	// Returns the address of the given range of words, after checking that the range
+	// is inside the allocated block whose base address is given
+	private int checkedAddress(int address, int offset, int count) {
+		// Prefers the non-empty block at the address, which is the only one with words to access
+		Node node = allocatedIndex.get(address);
+		if (node == null) node = findAllocated(address);
+		if (node == null) {
+			throw new IllegalArgumentException("no block is allocated at the given address");
+		}
+		if (offset < 0 || count < 0 || (long) offset + count > node.block.length) {
+			throw new IllegalArgumentException("offset and count must be inside the block");
+		}
+		return address + offset;
+	}
+
+	// Returns the backing store
+	private int[] words() {
+		if (words == null) {
+			throw new IllegalStateException("this memory space has no backing store");
+		}
+		return words;
+	}
+
+	/**
+	 * Writes the state of this memory space, its free list and its allocated list, to the
+	 * given channel, as a compact binary stream that restore reads back.
+	 * The stream starts with a magic number, the format version and the size of the memory
+	 * space. Then each list is written as its size followed by its blocks, in list order:
+	 * for every block, the difference between its base address and that of the previous
+	 * block (zigzag-encoded), and its length. All the numbers are varints, so a block whose
+	 * neighbor in the list is nearby in memory usually takes two to four bytes.
+	 * The backing store, if any, is not written.
+	 * 
+	 * @param channel
+	 *            the channel to write to; it is not closed
+	 * @throws IOException
+	 *         if the channel cannot be written
+	 */
+	public void snapshot(WritableByteChannel channel) throws IOException {
+		VarintCodec.Writer out = new VarintCodec.Writer(channel);
+		out.writeBytes(SNAPSHOT_MAGIC);
+		out.writeInt(SNAPSHOT_VERSION);
+		out.writeInt(maxSize);
+		writeBlocks(out, freeList);
+		writeBlocks(out, allocatedList);
+		out.flush();
+	}
+
+	/**
+	 * Replaces the state of this memory space with the state that snapshot wrote to the
+	 * given channel. The blocks are restored in the same list order, so under the first-fit,
+	 * best-fit and worst-fit policies, whose choices depend on the blocks alone, the memory
+	 * space places blocks exactly as the one that was saved. The internal state of the
+	 * placement policy is not saved, but rebuilt from the free list: the roving pointer of
+	 * next-fit starts again at the head of the list, and the bins of segregated fit are filled
+	 * in list order. So under those policies, later placements may differ from the saved
+	 * memory space's.
+	 * <p>
+	 * Every block is checked to lie inside this memory space and not to overlap another
+	 * block before any is restored, so an invalid snapshot leaves this memory space as it was.
+	 * If this memory space coalesces on free, adjacent free blocks of a snapshot saved by one
+	 * that does not are merged as defrag merges them, so that no two free blocks are adjacent.
+	 * 
+	 * @param channel
+	 *            the channel to read from; it is not closed
+	 * @throws IOException
+	 *         if the channel cannot be read, or does not hold a valid snapshot
+	 * @throws IllegalArgumentException
+	 *         if the snapshot is of a memory space of a different size
+	 */
+	public void restore(ReadableByteChannel channel) throws IOException {
+		VarintCodec.Reader in = new VarintCodec.Reader(channel);
+		if (!Arrays.equals(in.readBytes(SNAPSHOT_MAGIC.length), SNAPSHOT_MAGIC)) {
+			throw new IOException("not a snapshot: bad magic number");
+		}
+		int version = in.readInt();
+		if (version != SNAPSHOT_VERSION) {
+			throw new IOException("unsupported snapshot version " + version);
+		}
+		if (in.readInt() != maxSize) {
+			throw new IllegalArgumentException("the snapshot is of a memory space of a different size");
+		}
+		// The blocks are read and checked in full before any is restored, so that a truncated
+		// or malformed snapshot leaves this memory space as it was
+		int[] free = readBlocks(in);
+		int[] allocated = readBlocks(in);
+		checkBlocks(free, allocated);
+		clearBlocks();
+		for (int i = 0; i < free.length; i += 2) {
+			restoreFree(free[i], free[i + 1]);
+		}
+		for (int i = 0; i < allocated.length; i += 2) {
+			restoreAllocated(allocated[i], allocated[i + 1]);
+		}
+		if (coalesceOnFree) {
+			merge();
+		}
+	}
+
+	// Reads the blocks of a list that writeBlocks wrote, as (base address, length) pairs
+	private int[] readBlocks(VarintCodec.Reader in) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > Integer.MAX_VALUE / 2) {
+			throw new IOException("corrupted snapshot: bad list size");
+		}
+		int[] blocks = new int[2 * count];
+		int base = 0;
+		for (int i = 0; i < blocks.length; i += 2) {
+			base += in.readSignedInt();
+			blocks[i] = base;
+			blocks[i + 1] = in.readInt();
+		}
+		return blocks;
+	}
+
+	// Writes the size of the given list, and its blocks as (base address delta, length) pairs
+	private static void writeBlocks(VarintCodec.Writer out, LinkedList list) throws IOException {
+		out.writeInt(list.getSize());
+		int previous = 0;
+		for (Node node = list.getFirst(); node != null; node = node.next) {
+			out.writeSignedInt(node.block.baseAddress - previous);
+			out.writeInt(node.block.length);
+			previous = node.block.baseAddress;
+		}
+	}
+
 	/**
 	 * A textual representation of the free list and the allocated list of this memory space, 
 	 * for debugging purposes.
@@ -110,34 +876,219 @@ public class MemorySpace {
 		return freeList.toString() + "\n" + allocatedList.toString();		
 	}
 	
+	/**
+	 * Returns the external fragmentation of this memory space: one minus the ratio
+	 * between the length of the largest free block and the total length of the free blocks.
+	 * The result is 0 if all the free memory is one block (or if no memory is free),
+	 * and approaches 1 as the free memory is split into many small blocks.
+	 * The value is read from the live statistics, in constant time.
+	 *
+	 * @return the external fragmentation, between 0 and 1
+	 */
+	public double fragmentation() {
+		return stats.getFragmentation();
+	}
+
+	/**
+	 * Sets the instrumentation that malloc, free and defrag record their latency (and malloc
+	 * its scan depth) into, or disables the instrumentation if metrics is null. While the
+	 * instrumentation is disabled, which is the default, the operations record nothing.
+	 * mallocAligned and each request of mallocBatch are recorded as a malloc, and each
+	 * address of freeBatch as a free.
+	 *
+	 * @param metrics
+	 *            the metrics to record into, or null
+	 */
+	public void setMetrics(MemorySpaceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the live statistics of this memory space: the number and total length of the
+	 * free blocks, the largest free block, the number of allocated blocks and the external
+	 * fragmentation. The same read-only object is returned every time, and its values follow
+	 * the changes of this memory space, so reading them costs no traversal.
+	 *
+	 * @return the statistics of this memory space
+	 */
+	public MemorySpaceStats stats() {
+		return stats;
+	}
+	
 	/**
 	 * Performs defragmantation of this memory space.
 	 * Normally, called by malloc, when it fails to find a memory block of the requested size.
 	 * In this implementation Malloc does not call defrag.
+	 * <p>
+	 * The free blocks are sorted by base address, and then a single sweep merges each run
+	 * of adjacent blocks into the run's first block. The merged block keeps the position of
+	 * that first block in the freeList, and the other blocks of the run are unlinked in O(1),
+	 * so defrag takes O(n log n) time rather than cubic time.
+	 * <p>
+	 * If free coalesces released blocks, no two free blocks are adjacent, and defrag finds
+	 * no run to merge.
 	 */
 	public void defrag() {
-		ListIterator iterator = new ListIterator(freeList.getFirst());
-		while (iterator.hasNext()){
-			MemoryBlock current = iterator.current.block;
-			ListIterator secondIterator = new ListIterator(freeList.getFirst());
-				while (secondIterator.hasNext()){
-					MemoryBlock current2 = secondIterator.current.block;
-					if (!current.equals(current2)){
-						if (current.baseAddress + current.length == current2.baseAddress){
-							current.length += current2.length;
-							freeList.remove(secondIterator.current);
-							secondIterator = new ListIterator(freeList.getFirst());
-						} else if (current2.baseAddress + current2.length == current.baseAddress){
-							current2.length += current.length;
-							freeList.remove(iterator.current);
-							iterator = new ListIterator(freeList.getFirst());
-							break;
-
-						}
-					}
-				secondIterator.next();
+		if (metrics != null) {
+			long start = System.nanoTime();
+			merge();
+			metrics.getDefragLatency().record(System.nanoTime() - start);
+		} else {
+			merge();
+		}
+	}
+
+	// Merges the runs of adjacent free blocks, as described in defrag
+	private void merge() {
+		int n = freeList.getSize();
+		if (n < 2) return;
+		Node[] byAddress = new Node[n];
+		Node node = freeList.getFirst();
+		for (int i = 0; i < n; i++) {
+			byAddress[i] = node;
+			node = node.next;
+		}
+		Arrays.sort(byAddress, BY_BASE_ADDRESS);
+		Node run = byAddress[0];
+		for (int i = 1; i < n; i++) {
+			MemoryBlock current = byAddress[i].block;
+			if (run.block.baseAddress + run.block.length == current.baseAddress) {
+				int length = run.block.length + current.length;
+				removeFree(byAddress[i]);
+				recycle(byAddress[i]);
+				resizeFree(run, run.block.baseAddress, length);
+			} else {
+				run = byAddress[i];
+			}
+		}
+	}
+
+	// The following package-private helpers let PersistentHeap and restore rebuild the state
+	// of a memory space, block by block.
+
+	/** Returns the size of this memory space. */
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	/** Returns true if free merges released blocks with their free neighbors. */
+	boolean getCoalesceOnFree() {
+		return coalesceOnFree;
+	}
+
+	/** Returns the free list, which the caller must not change. */
+	LinkedList getFreeList() {
+		return freeList;
+	}
+
+	/** Returns the allocated list, which the caller must not change. */
+	LinkedList getAllocatedList() {
+		return allocatedList;
+	}
+
+	/** Returns true if a block whose base address equals the given address is allocated. */
+	boolean isAllocated(int address) {
+		return findAllocated(address) != null;
+	}
+
+	/** Returns the backing store, or null if this memory space has none. */
+	int[] getBackingStore() {
+		return words;
+	}
+
+	/**
+	 * Checks that the given free and allocated blocks, as (base address, length) pairs, lie
+	 * inside this memory space, and that no two blocks of positive length overlap.
+	 *
+	 * @throws IOException
+	 *         if a block is outside this memory space or overlaps another block
+	 */
+	void checkBlocks(int[] free, int[] allocated) throws IOException {
+		// Sorts the blocks of positive length by base address, each as base address and length in a long
+		long[] sorted = new long[(free.length + allocated.length) / 2];
+		int count = 0;
+		for (int[] blocks : new int[][] {free, allocated}) {
+			for (int i = 0; i < blocks.length; i += 2) {
+				int base = blocks[i];
+				int length = blocks[i + 1];
+				if (base < 0 || length < 0 || (long) base + length > maxSize) {
+					throw new IOException("invalid block (" + base + " , " + length + "): outside the memory space");
 				}
-				iterator.next();
-		}	
+				if (length > 0) sorted[count++] = ((long) base << 32) | length;
+			}
+		}
+		Arrays.sort(sorted, 0, count);
+		long end = 0;
+		for (int i = 0; i < count; i++) {
+			int base = (int) (sorted[i] >>> 32);
+			if (base < end) {
+				throw new IOException("invalid block (" + base + " , " + (int) sorted[i] + "): overlaps another block");
+			}
+			end = (long) base + (int) sorted[i];
+		}
+	}
+
+	/**
+	 * Removes all the blocks from both lists (and from the placement policy), so that
+	 * the lists can be rebuilt by restoreFree and restoreAllocated.
+	 */
+	void clearBlocks() {
+		while (freeList.getSize() > 0) {
+			Node node = freeList.getFirst();
+			removeFree(node);
+			recycle(node);
+		}
+		while (allocatedList.getSize() > 0) {
+			Node node = allocatedList.getFirst();
+			allocatedList.remove(node);
+			recycle(node);
+		}
+		allocatedIndex.clear();
+		zeroLengthBlocks = 0;
+	}
+
+	/** Appends a free block with the given base address and length to the free list. */
+	void restoreFree(int baseAddress, int length) {
+		addFree(newNode(baseAddress, length));
+	}
+
+	/** Appends an allocated block with the given base address and length to the allocated list. */
+	void restoreAllocated(int baseAddress, int length) {
+		Node node = newNode(baseAddress, length);
+		allocatedList.linkLast(node);
+		indexAllocated(node);
+	}
+
+	/**
+	 * Allocates a block of the given length at the given address, without asking the placement
+	 * policy, as malloc does once the policy has chosen a free block: the block is carved from
+	 * the free block that holds it, preferably one that starts at the address and has exactly
+	 * the given length. The free list is scanned, so this takes linear time.
+	 *
+	 * @return true if the block was allocated, or false if no free block holds it
+	 */
+	boolean allocateAt(int address, int length) {
+		Node found = null;
+		for (Node node = freeList.getFirst(); node != null; node = node.next) {
+			MemoryBlock block = node.block;
+			if (block.baseAddress == address && block.length == length) {
+				found = node;
+				break;
+			}
+			long end = (long) block.baseAddress + block.length;
+			if (found == null && block.baseAddress <= address && (long) address + length <= end
+					&& (address < end || block.baseAddress == address)) {
+				found = node;
+			}
+		}
+		if (found == null) return false;
+		int base = found.block.baseAddress;
+		if (address != base) {
+			// The free node moves up to the address, and the part before it becomes a new free block
+			resizeFree(found, address, found.block.length - (address - base));
+			addFree(newNode(base, address - base));
+		}
+		allocate(found, length);
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/* This program measures the throughput and the latency of the memory management system.
+ * It benchmarks MemorySpace.malloc, free and defrag under each placement policy, and the
+ * positional and search operations of LinkedList, over a grid of heap sizes, block counts
+ * and fragmentation levels.
+ *
+ * Each benchmark is run for a few warmup iterations, which let the JIT compile the code,
+ * and then for a few measured iterations. The state that an operation consumes (for example,
+ * the allocated blocks that free releases) is rebuilt before every iteration, outside of
+ * the measured time. Every operation is timed separately, and the report lists the
+ * throughput, the mean latency and the 99th percentile latency.
+ *
+ * Usage: java MemorySpaceBenchmark [heapSize blockCount fragmentation]
+ * Without arguments, the whole default grid is measured. The fragmentation level is the
+ * fraction, between 0 and 1, of the odd-numbered blocks that are freed before measuring:
+ * at 1, every other block is free.
+ */
+public class MemorySpaceBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+	// Maximal number of operations that are timed in one iteration
+	private static final int OPS_PER_ITERATION = 2000;
+
+	private static final int[] HEAP_SIZES = { 1 << 16, 1 << 20 };
+	private static final int[] BLOCK_COUNTS = { 1000, 10000 };
+	private static final double[] FRAGMENTATION = { 0.0, 0.5, 1.0 };
+	private static final String[] POLICIES = { "first-fit", "next-fit", "best-fit", "segregated" };
+
+	// Results are accumulated here, so that the JIT cannot remove the measured code
+	private static long sink;
+
+	public static void main(String[] args) {
+		int[] heapSizes = HEAP_SIZES;
+		int[] blockCounts = BLOCK_COUNTS;
+		double[] fragmentation = FRAGMENTATION;
+		if (args.length == 3) {
+			heapSizes = new int[] { Integer.parseInt(args[0]) };
+			blockCounts = new int[] { Integer.parseInt(args[1]) };
+			fragmentation = new double[] { Double.parseDouble(args[2]) };
+		} else if (args.length != 0) {
+			System.out.println("Usage: java MemorySpaceBenchmark [heapSize blockCount fragmentation]");
+			return;
+		}
+		System.out.printf("%-18s %-11s %9s %7s %5s %14s %10s %10s%n",
+				"benchmark", "policy", "heap", "blocks", "frag", "ops/s", "mean ns", "p99 ns");
+		for (int heapSize : heapSizes) {
+			for (int blockCount : blockCounts) {
+				if (2 * blockCount > heapSize) continue;
+				for (double frag : fragmentation) {
+					for (String policy : POLICIES) {
+						benchmarkMalloc(policy, heapSize, blockCount, frag);
+						benchmarkFree(policy, heapSize, blockCount, frag);
+						benchmarkDefrag(policy, heapSize, blockCount, frag);
+					}
+				}
+				benchmarkList(heapSize, blockCount);
+			}
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	/**
+	 * Represents a memory space that was filled with blocks, and then fragmented by
+	 * freeing some of the odd-numbered blocks. The even-numbered blocks are kept, so
+	 * that the freed blocks cannot merge with each other.
+	 */
+	private static class Fixture {
+		final MemorySpace memory;
+		final int blockLength;
+		final int[] live;  // the base addresses of the blocks that are still allocated
+		int liveCount;
+
+		Fixture(String policy, int heapSize, int blockCount, double frag, long seed) {
+			memory = new MemorySpace(heapSize, AllocationPolicy.forName(policy));
+			// The blocks fill half of the heap; the other half remains one free block
+			blockLength = Math.max(1, heapSize / (2 * blockCount));
+			int[] addresses = new int[blockCount];
+			for (int i = 0; i < blockCount; i++) {
+				addresses[i] = memory.malloc(blockLength);
+			}
+			Random random = new Random(seed);
+			live = new int[blockCount];
+			for (int i = 0; i < blockCount; i++) {
+				if (i % 2 == 1 && random.nextDouble() < frag) {
+					memory.free(addresses[i]);
+				} else {
+					live[liveCount++] = addresses[i];
+				}
+			}
+			// Shuffles the live blocks, so that they are freed in a random order
+			for (int i = liveCount - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int t = live[i];
+				live[i] = live[j];
+				live[j] = t;
+			}
+		}
+	}
+
+	private static void benchmarkMalloc(String policy, int heapSize, int blockCount, double frag) {
+		long[] samples = new long[MEASURED_ITERATIONS * OPS_PER_ITERATION];
+		int count = 0;
+		for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			Fixture fixture = new Fixture(policy, heapSize, blockCount, frag, iteration);
+			Random random = new Random(iteration);
+			int ops = Math.min(OPS_PER_ITERATION, blockCount);
+			for (int i = 0; i < ops; i++) {
+				int length = 1 + random.nextInt(fixture.blockLength);
+				long start = System.nanoTime();
+				sink += fixture.memory.malloc(length);
+				long time = System.nanoTime() - start;
+				if (iteration >= WARMUP_ITERATIONS) samples[count++] = time;
+			}
+		}
+		report("malloc", policy, heapSize, blockCount, frag, samples, count);
+	}
+
+	private static void benchmarkFree(String policy, int heapSize, int blockCount, double frag) {
+		long[] samples = new long[MEASURED_ITERATIONS * OPS_PER_ITERATION];
+		int count = 0;
+		for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			Fixture fixture = new Fixture(policy, heapSize, blockCount, frag, iteration);
+			int ops = Math.min(OPS_PER_ITERATION, fixture.liveCount);
+			for (int i = 0; i < ops; i++) {
+				int address = fixture.live[i];
+				long start = System.nanoTime();
+				fixture.memory.free(address);
+				long time = System.nanoTime() - start;
+				if (iteration >= WARMUP_ITERATIONS) samples[count++] = time;
+			}
+		}
+		report("free", policy, heapSize, blockCount, frag, samples, count);
+	}
+
+	private static void benchmarkDefrag(String policy, int heapSize, int blockCount, double frag) {
+		long[] samples = new long[MEASURED_ITERATIONS];
+		int count = 0;
+		for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			Fixture fixture = new Fixture(policy, heapSize, blockCount, frag, iteration);
+			// Frees half of the live blocks, so that defrag has runs to merge
+			for (int i = 0; i < fixture.liveCount / 2; i++) {
+				fixture.memory.free(fixture.live[i]);
+			}
+			long start = System.nanoTime();
+			fixture.memory.defrag();
+			long time = System.nanoTime() - start;
+			if (iteration >= WARMUP_ITERATIONS) samples[count++] = time;
+		}
+		report("defrag", policy, heapSize, blockCount, frag, samples, count);
+	}
+
+	private static void benchmarkList(int heapSize, int blockCount) {
+		int ops = Math.min(OPS_PER_ITERATION, blockCount);
+		long[][] samples = new long[4][MEASURED_ITERATIONS * ops];
+		int count = 0;
+		for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			LinkedList list = new LinkedList();
+			MemoryBlock[] blocks = new MemoryBlock[blockCount];
+			for (int i = 0; i < blockCount; i++) {
+				blocks[i] = new MemoryBlock(i * 2, 2);
+				list.addLast(blocks[i]);
+			}
+			Random random = new Random(iteration);
+			boolean measured = iteration >= WARMUP_ITERATIONS;
+			for (int i = 0; i < ops; i++) {
+				int index = random.nextInt(blockCount);
+				long start = System.nanoTime();
+				sink += list.getNode(index).block.baseAddress;
+				long getTime = System.nanoTime() - start;
+
+				MemoryBlock block = new MemoryBlock(-1, 1);
+				start = System.nanoTime();
+				list.add(index, block);
+				long addTime = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				sink += list.indexOf(blocks[index]);
+				long indexOfTime = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				list.remove(block);
+				long removeTime = System.nanoTime() - start;
+
+				if (measured) {
+					samples[0][count] = getTime;
+					samples[1][count] = addTime;
+					samples[2][count] = indexOfTime;
+					samples[3][count] = removeTime;
+					count++;
+				}
+			}
+		}
+		String[] names = { "list.getNode", "list.add(index)", "list.indexOf", "list.remove" };
+		for (int b = 0; b < names.length; b++) {
+			report(names[b], "-", heapSize, blockCount, 0, samples[b], count);
+		}
+	}
+
+	// Prints one line of the report, summarizing the given latency samples
+	private static void report(String benchmark, String policy, int heapSize, int blockCount,
+			double frag, long[] samples, int count) {
+		if (count == 0) return;
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		long total = 0;
+		for (long sample : sorted) total += sample;
+		double mean = (double) total / count;
+		long p99 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)];
+		System.out.printf("%-18s %-11s %9d %7d %5.2f %14.0f %10.0f %10d%n",
+				benchmark, policy, heapSize, blockCount, frag, 1e9 / mean, mean, p99);
+	}
+}
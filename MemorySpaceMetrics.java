@@ -0,0 +1,70 @@
+/**
+ * Represents the instrumentation of memory spaces: histograms of the latency (in nanoseconds)
+ * of malloc, free and defrag, and of the scan depth of malloc, which is the number of free
+ * blocks that the placement policy examined before it found a fit.
+ * <p>
+ * A memory space records into its metrics only after MemorySpace.setMetrics is called;
+ * otherwise its operations check a single null field and record nothing. The histograms
+ * are lock-free, so one metrics object may be shared by several memory spaces, even ones
+ * that different threads use, such as the arenas of a ConcurrentMemorySpace.
+ */
+public class MemorySpaceMetrics {
+
+	private final LatencyHistogram mallocLatency = new LatencyHistogram();
+	private final LatencyHistogram freeLatency = new LatencyHistogram();
+	private final LatencyHistogram defragLatency = new LatencyHistogram();
+	private final LatencyHistogram mallocScanDepth = new LatencyHistogram();
+
+	/**
+	 * Gets the histogram of the latency of malloc, in nanoseconds.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getMallocLatency() {
+		return mallocLatency;
+	}
+
+	/**
+	 * Gets the histogram of the latency of free, in nanoseconds.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getFreeLatency() {
+		return freeLatency;
+	}
+
+	/**
+	 * Gets the histogram of the latency of defrag, in nanoseconds.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getDefragLatency() {
+		return defragLatency;
+	}
+
+	/**
+	 * Gets the histogram of the number of free blocks that malloc examined per call.
+	 * Policies that find the block through an index, without scanning, record 0.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getMallocScanDepth() {
+		return mallocScanDepth;
+	}
+
+	/**
+	 * Removes all the recorded values from all the histograms.
+	 */
+	public void reset() {
+		mallocLatency.reset();
+		freeLatency.reset();
+		defragLatency.reset();
+		mallocScanDepth.reset();
+	}
+
+	/**
+	 * A textual representation of the histograms' summaries, for debugging purposes.
+	 */
+	public String toString() {
+		return "malloc latency (ns): " + mallocLatency + "\n"
+				+ "malloc scan depth:   " + mallocScanDepth + "\n"
+				+ "free latency (ns):   " + freeLatency + "\n"
+				+ "defrag latency (ns): " + defragLatency;
+	}
+}
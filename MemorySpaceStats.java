@@ -0,0 +1,176 @@
+/**
+ * Represents live statistics of a memory space: the number and the total length of the
+ * free blocks, the length of the largest free block, the number of allocated blocks, and
+ * the external fragmentation. The memory space updates the statistics every time it adds,
+ * removes or resizes a free block, so every query takes constant time, and no list is walked.
+ * <p>
+ * The statistics are a read-only view: MemorySpace.stats returns the same object every time,
+ * and its values change as the memory space changes.
+ * <p>
+ * The largest free block is found in a binary max-heap of the distinct free block lengths,
+ * kept in an int array with the number of free blocks of each length in a parallel array,
+ * and the position of each length in the heap in an IntIndex. So the query takes constant
+ * time, the updates take O(log n) time, the statistics take memory in proportion to the
+ * number of free blocks rather than to the size of the memory space, and the updates create
+ * no objects once the arrays have grown to fit.
+ */
+public class MemorySpaceStats {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final int maxSize;
+	private final LinkedList allocatedList;
+
+	private long freeWords;
+	private int freeBlocks;
+
+	// The distinct free block lengths, as a max-heap in heap[0, lengths)
+	private int[] heap = new int[MIN_CAPACITY];
+	// counts[i] is the number of free blocks of length heap[i]
+	private int[] counts = new int[MIN_CAPACITY];
+	private int lengths;
+	// The position in the heap of each free block length
+	private final IntIndex positions = new IntIndex();
+
+	/**
+	 * Constructs the statistics of a memory space of the given size, which has no free blocks yet.
+	 */
+	MemorySpaceStats(int maxSize, LinkedList allocatedList) {
+		this.maxSize = maxSize;
+		this.allocatedList = allocatedList;
+	}
+
+	/**
+	 * Gets the total length of the free blocks.
+	 * @return The number of free words.
+	 */
+	public long getFreeWords() {
+		return freeWords;
+	}
+
+	/**
+	 * Gets the total length of the allocated blocks.
+	 * @return The number of allocated words.
+	 */
+	public long getAllocatedWords() {
+		return maxSize - freeWords;
+	}
+
+	/**
+	 * Gets the number of free blocks.
+	 * @return The number of free blocks.
+	 */
+	public int getFreeBlocks() {
+		return freeBlocks;
+	}
+
+	/**
+	 * Gets the number of allocated blocks.
+	 * @return The number of allocated blocks.
+	 */
+	public int getAllocatedBlocks() {
+		return allocatedList.getSize();
+	}
+
+	/**
+	 * Gets the length of the largest free block.
+	 * @return The length of the largest free block, or 0 if no block is free.
+	 */
+	public int getLargestFreeBlock() {
+		return (lengths == 0) ? 0 : heap[0];
+	}
+
+	/**
+	 * Returns the external fragmentation: one minus the ratio between the length of the
+	 * largest free block and the total length of the free blocks. The result is 0 if all
+	 * the free memory is one block (or if no memory is free), and approaches 1 as the free
+	 * memory is split into many small blocks.
+	 *
+	 * @return the external fragmentation, between 0 and 1
+	 */
+	public double getFragmentation() {
+		return (freeWords == 0) ? 0 : 1 - (double) getLargestFreeBlock() / freeWords;
+	}
+
+	/**
+	 * A textual representation of the statistics, for debugging purposes.
+	 */
+	public String toString() {
+		return "free words: " + freeWords + ", free blocks: " + freeBlocks
+				+ ", largest free block: " + getLargestFreeBlock()
+				+ ", allocated blocks: " + getAllocatedBlocks()
+				+ ", fragmentation: " + getFragmentation();
+	}
+
+	/** Records that a free block of the given length was added. */
+	void freeAdded(int length) {
+		freeWords += length;
+		freeBlocks++;
+		int i = positions.get(length);
+		if (i != IntIndex.NONE) {
+			counts[i]++;
+			return;
+		}
+		if (lengths == heap.length) {
+			heap = java.util.Arrays.copyOf(heap, 2 * lengths);
+			counts = java.util.Arrays.copyOf(counts, 2 * lengths);
+		}
+		i = lengths++;
+		heap[i] = length;
+		counts[i] = 1;
+		positions.put(length, i);
+		siftUp(i);
+	}
+
+	/** Records that a free block of the given length was removed. */
+	void freeRemoved(int length) {
+		freeWords -= length;
+		freeBlocks--;
+		int i = positions.get(length);
+		if (--counts[i] > 0) return;
+		positions.remove(length);
+		int last = --lengths;
+		if (i == last) return;
+		// The last length fills the hole, and moves up or down to its place
+		heap[i] = heap[last];
+		counts[i] = counts[last];
+		positions.put(heap[i], i);
+		if (!siftUp(i)) siftDown(i);
+	}
+
+	// Moves the length at position i up while it is longer than its parent; returns true if it moved
+	private boolean siftUp(int i) {
+		int start = i;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] >= heap[i]) break;
+			swap(i, parent);
+			i = parent;
+		}
+		return i != start;
+	}
+
+	// Moves the length at position i down while a child is longer
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= lengths) return;
+			if (child + 1 < lengths && heap[child + 1] > heap[child]) child++;
+			if (heap[i] >= heap[child]) return;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	// Swaps the lengths at positions i and j, with their counts and their positions in the index
+	private void swap(int i, int j) {
+		int length = heap[i];
+		int count = counts[i];
+		heap[i] = heap[j];
+		counts[i] = counts[j];
+		heap[j] = length;
+		counts[j] = count;
+		positions.put(heap[i], i);
+		positions.put(heap[j], j);
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Represents the next-fit placement policy: like first fit, but each scan starts where
+ * the previous one stopped (the roving pointer), and wraps around to the first node of
+ * the free list. This spreads the allocations over the memory, instead of crowding
+ * small leftover blocks at the head of the free list.
+ */
+public class NextFitPolicy implements AllocationPolicy {
+
+	private Node rover; // the node where the next scan starts, or null for the first node
+	private int scanDepth; // the number of nodes that the last scan examined
+
+	/**
+	 * Scans the free list from the roving pointer, wrapping around once, and selects
+	 * the first node that fits. The roving pointer is left at the selected node.
+	 */
+	public Node select(LinkedList freeList, int length) {
+		Node start = (rover != null) ? rover : freeList.getFirst();
+		Node current = start;
+		scanDepth = 0;
+		while (current != null) {
+			scanDepth++;
+			if (current.block.length >= length) {
+				rover = current;
+				return current;
+			}
+			current = (current.next != null) ? current.next : freeList.getFirst();
+			if (current == start) break;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of nodes that the last scan examined.
+	 */
+	public int lastScanDepth() {
+		return scanDepth;
+	}
+
+	/**
+	 * Moves the roving pointer forward if it stands on the removed node.
+	 */
+	public void removed(Node node) {
+		if (rover == node) rover = node.next;
+	}
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a memory space that is saved to a file by sync, so that it survives restarts:
+ * a process that opens the file again reattaches to the heap as it was at the last sync, by
+ * reading the words and the block tables back, without replaying any allocation. Changes
+ * made after the last sync are not in the file, so a crash loses them; for a memory space
+ * in which every operation is durable, see DurableMemorySpace.
+ * <p>
+ * The file is laid out as follows (all the fields are big-endian ints or longs):
+ * <pre>
+ *   header   magic, version, maxSize, flags, freeCount, allocatedCount, checksum (long)
+ *   words    maxSize ints, if the heap is backed (flags bit 0)
+ *            (flags bit 1 is set if the heap coalesces on free)
+ *   free     freeCount (baseAddress, length) pairs, in free list order
+ *   alloc    allocatedCount (baseAddress, length) pairs, in allocated list order
+ * </pre>
+ * The checksum is the CRC32 of the header fields before it and of everything after it.
+ * When a file is opened, its magic, version and checksum are validated before anything
+ * is restored, so a truncated, corrupted or foreign file is rejected. The file is mapped
+ * read-only while it is read, and is not kept open afterwards.
+ * <p>
+ * The memory space itself works on the Java heap at full speed; sync builds the image of
+ * the whole file in a buffer (the words with a single bulk copy), writes it to a temporary
+ * file, forces it to the disk, moves it over the heap file, and forces the directory, so
+ * that the move itself is durable. So a crash during a sync leaves either the old or the
+ * new heap file intact, as in DurableMemorySpace.checkpoint. The buffer is kept for the
+ * next sync, and is reallocated only when the image outgrows it.
+ */
+public class PersistentHeap {
+
+	private static final int MAGIC = 0x4D535048;  // "MSPH"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int CHECKSUM_OFFSET = 24;
+	private static final int FLAG_BACKED = 1;
+	private static final int FLAG_COALESCE = 2;
+
+	private final Path path;
+	private final MemorySpace memory;
+	private ByteBuffer image; // the image of the file that the last sync wrote, or null
+
+	/**
+	 * Opens the persistent heap in the given file. If the file is empty or does not exist,
+	 * a new memory space is created with the given size and options, and saved to the file.
+	 * Otherwise the memory space is restored from the file, whose size, backing store and
+	 * coalescing mode must match the given ones.
+	 *
+	 * @param path
+	 *            the file of the heap
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy, which serves this memory space only
+	 * @param coalesceOnFree
+	 *            true if free should merge released blocks with their free neighbors
+	 * @param backed
+	 *            true if the memory space should have a backing store of maxSize words
+	 * @throws IOException
+	 *         if the file cannot be read or written, or is not a valid heap file
+	 * @throws IllegalArgumentException
+	 *         if the heap in the file has a different size, backing store or coalescing mode
+	 */
+	public PersistentHeap(Path path, int maxSize, AllocationPolicy policy, boolean coalesceOnFree,
+			boolean backed) throws IOException {
+		this.path = path;
+		memory = new MemorySpace(maxSize, policy, coalesceOnFree, backed);
+		if (!Files.exists(path) || Files.size(path) == 0) {
+			sync();
+		} else {
+			load(backed, coalesceOnFree);
+		}
+	}
+
+	/**
+	 * Gets the memory space of this heap.
+	 * @return The memory space.
+	 */
+	public MemorySpace memory() {
+		return memory;
+	}
+
+	/**
+	 * Writes the current state of the memory space to the file, and forces it to the disk.
+	 * The state is written to a temporary file, which then replaces the file atomically.
+	 *
+	 * @throws IOException
+	 *         if the file cannot be written
+	 */
+	public void sync() throws IOException {
+		int[] words = memory.getBackingStore();
+		LinkedList free = memory.getFreeList();
+		LinkedList allocated = memory.getAllocatedList();
+		int wordCount = (words == null) ? 0 : words.length;
+		long size = HEADER_SIZE + 4L * wordCount + 8L * (free.getSize() + allocated.getSize());
+		if (size > Integer.MAX_VALUE) throw new IOException("the heap is too large for a heap file");
+		if (image == null || image.capacity() < size) image = ByteBuffer.allocate((int) size);
+		ByteBuffer buffer = image;
+		buffer.clear();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(memory.getMaxSize());
+		buffer.putInt(((words == null) ? 0 : FLAG_BACKED) | (memory.getCoalesceOnFree() ? FLAG_COALESCE : 0));
+		buffer.putInt(free.getSize());
+		buffer.putInt(allocated.getSize());
+		buffer.position(HEADER_SIZE);
+		IntBuffer body = buffer.asIntBuffer();
+		if (words != null) body.put(words);
+		putBlocks(body, free);
+		putBlocks(body, allocated);
+		buffer.putLong(CHECKSUM_OFFSET, checksum(buffer, size));
+		buffer.position(0).limit((int) size);
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		replace(temporary, path);
+	}
+
+	/**
+	 * Moves the given file over the target file atomically, and then forces the directory to the
+	 * disk, since the move is a change of the directory that is not durable until it is forced.
+	 */
+	static void replace(Path temporary, Path target) throws IOException {
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Path directory = target.toAbsolutePath().getParent();
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Syncs the heap. No file is kept open between syncs, so nothing else is released.
+	 *
+	 * @throws IOException
+	 *         if the file cannot be written
+	 */
+	public void close() throws IOException {
+		sync();
+	}
+
+	// Validates the file, and restores the state of the memory space from it
+	private void load(boolean backed, boolean coalesceOnFree) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) throw new IOException("not a heap file: too short");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		long size = buffer.capacity();
+		if (buffer.getInt(0) != MAGIC) throw new IOException("not a heap file: bad magic number");
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported heap file version " + buffer.getInt(4));
+		}
+		int maxSize = buffer.getInt(8);
+		boolean fileBacked = (buffer.getInt(12) & FLAG_BACKED) != 0;
+		boolean fileCoalesces = (buffer.getInt(12) & FLAG_COALESCE) != 0;
+		int freeCount = buffer.getInt(16);
+		int allocatedCount = buffer.getInt(20);
+		long expected = HEADER_SIZE + (fileBacked ? 4L * maxSize : 0)
+				+ 8L * ((long) freeCount + allocatedCount);
+		if (maxSize < 0 || freeCount < 0 || allocatedCount < 0 || size != expected) {
+			throw new IOException("corrupted heap file: bad table sizes");
+		}
+		if (buffer.getLong(CHECKSUM_OFFSET) != checksum(buffer, size)) {
+			throw new IOException("corrupted heap file: checksum mismatch");
+		}
+		if (maxSize != memory.getMaxSize() || fileBacked != backed || fileCoalesces != coalesceOnFree) {
+			throw new IllegalArgumentException("the heap file has a different size, backing store or coalescing mode");
+		}
+		buffer.position(HEADER_SIZE);
+		IntBuffer body = buffer.asIntBuffer();
+		// The blocks are read and checked before anything is restored
+		body.position(fileBacked ? maxSize : 0);
+		int[] free = new int[2 * freeCount];
+		int[] allocated = new int[2 * allocatedCount];
+		body.get(free);
+		body.get(allocated);
+		memory.checkBlocks(free, allocated);
+		if (fileBacked) body.position(0).get(memory.getBackingStore());
+		memory.clearBlocks();
+		for (int i = 0; i < free.length; i += 2) {
+			memory.restoreFree(free[i], free[i + 1]);
+		}
+		for (int i = 0; i < allocated.length; i += 2) {
+			memory.restoreAllocated(allocated[i], allocated[i + 1]);
+		}
+	}
+
+	// Puts the (baseAddress, length) pairs of the blocks of the given list
+	private static void putBlocks(IntBuffer body, LinkedList list) {
+		for (Node node = list.getFirst(); node != null; node = node.next) {
+			body.put(node.block.baseAddress);
+			body.put(node.block.length);
+		}
+	}
+
+	// Returns the CRC32 of the file, except for the checksum field itself
+	private static long checksum(ByteBuffer buffer, long size) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().position(0).limit(CHECKSUM_OFFSET));
+		crc.update(buffer.duplicate().position(HEADER_SIZE).limit((int) size));
+		return crc.getValue();
+	}
+}
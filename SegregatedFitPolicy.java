@@ -0,0 +1,158 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Represents the segregated-fit placement policy. The free nodes are kept in bins, according
+ * to the size classes of their blocks' lengths. Size class i holds the blocks whose length
+ * is at least bounds[i] and less than bounds[i + 1].
+ * By default the size classes are the powers of two: 1, 2, 4, 8, and so on.
+ * <p>
+ * A request is served from the head of the lowest non-empty bin whose blocks are all
+ * long enough, so a typical find looks at a single bin. A bitmap of the non-empty bins
+ * locates that bin without visiting the empty ones. Only when no such bin exists,
+ * the bin that holds the request's own size class is scanned.
+ */
+public class SegregatedFitPolicy implements AllocationPolicy {
+
+	// Maximal number of size classes (one bit per class in the bitmap)
+	private static final int MAX_CLASSES = 64;
+
+	private final int[] bounds;                      // lower bounds of the size classes, ascending
+	private final LinkedHashSet<Node>[] bins;        // the free nodes of each size class
+	private long nonEmpty;                           // bit i is set if bins[i] is not empty
+	private int scanDepth;                           // the number of nodes that the last selection examined
+
+	/**
+	 * Constructs bins with power-of-two size classes.
+	 */
+	public SegregatedFitPolicy() {
+		this(powersOfTwo());
+	}
+
+	/**
+	 * Constructs bins with the given size classes.
+	 *
+	 * @param bounds
+	 *        the lower bounds of the size classes, in ascending order, starting with 1
+	 * @throws IllegalArgumentException
+	 *         if the bounds are not ascending, do not start with 1, or are too many
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SegregatedFitPolicy(int... bounds) {
+		if (bounds.length == 0 || bounds.length > MAX_CLASSES || bounds[0] != 1) {
+			throw new IllegalArgumentException(
+					"size classes must start with 1 and be at most " + MAX_CLASSES);
+		}
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i - 1]) {
+				throw new IllegalArgumentException("size classes must be ascending");
+			}
+		}
+		this.bounds = bounds.clone();
+		bins = new LinkedHashSet[bounds.length];
+		for (int i = 0; i < bins.length; i++) {
+			bins[i] = new LinkedHashSet<Node>();
+		}
+	}
+
+	/**
+	 * Adds the given node to the bin of its size class.
+	 * Nodes of empty blocks are not kept.
+	 */
+	public void added(Node node) {
+		add(node, node.block.length);
+	}
+
+	/**
+	 * Removes the given node from the bin of its size class.
+	 */
+	public void removed(Node node) {
+		remove(node, node.block.length);
+	}
+
+	/**
+	 * Takes the given node out of its bin while its block changes.
+	 */
+	public void resizing(Node node) {
+		removed(node);
+	}
+
+	/**
+	 * Puts the given node in the bin of its new size class.
+	 */
+	public void resized(Node node) {
+		added(node);
+	}
+
+	/**
+	 * Selects a node whose block's length is at least the given length.
+	 * First looks at the head of the lowest non-empty bin in which every block fits,
+	 * and otherwise scans the bin of the requested size class.
+	 */
+	public Node select(LinkedList freeList, int length) {
+		if (length < 1) length = 1;
+		int c = classOf(length);
+		// The first size class in which every block is long enough
+		int fit = (bounds[c] == length) ? c : c + 1;
+		long candidates = (fit < MAX_CLASSES) ? nonEmpty & (-1L << fit) : 0;
+		if (candidates != 0) {
+			scanDepth = 1;
+			return bins[Long.numberOfTrailingZeros(candidates)].iterator().next();
+		}
+		scanDepth = 0;
+		if (fit != c) {
+			Iterator<Node> itr = bins[c].iterator();
+			while (itr.hasNext()) {
+				Node node = itr.next();
+				scanDepth++;
+				if (node.block.length >= length) return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of nodes that the last selection examined: 1 for the head of
+	 * a bin in which every block fits, or the number of nodes scanned in the requested bin.
+	 */
+	public int lastScanDepth() {
+		return scanDepth;
+	}
+
+	// Adds the given node to the bin of the given length
+	private void add(Node node, int length) {
+		if (length < 1) return;
+		int c = classOf(length);
+		bins[c].add(node);
+		nonEmpty |= 1L << c;
+	}
+
+	// Removes the given node from the bin of the given length
+	private void remove(Node node, int length) {
+		if (length < 1) return;
+		int c = classOf(length);
+		bins[c].remove(node);
+		if (bins[c].isEmpty()) nonEmpty &= ~(1L << c);
+	}
+
+	// Returns the size class of the given length: the last class whose lower bound is <= length
+	private int classOf(int length) {
+		int low = 0;
+		int high = bounds.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (bounds[mid] <= length) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	// Returns the lower bounds 1, 2, 4, ..., 2^30
+	private static int[] powersOfTwo() {
+		int[] bounds = new int[31];
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = 1 << i;
+		}
+		return bounds;
+	}
+}
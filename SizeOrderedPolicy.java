@@ -0,0 +1,63 @@
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Represents a placement policy that keeps the free nodes in a balanced search tree
+ * (a red-black tree), ordered by the lengths of their blocks and then by base address.
+ * The tree is kept consistent with the free list through the policy's notifications,
+ * and each subclass selects a node from it in O(log n) time.
+ */
+public abstract class SizeOrderedPolicy implements AllocationPolicy {
+
+	// Orders nodes by the lengths of their blocks, and then by base address
+	private static final Comparator<Node> BY_LENGTH = (a, b) -> (a.block.length != b.block.length)
+			? Integer.compare(a.block.length, b.block.length)
+			: Integer.compare(a.block.baseAddress, b.block.baseAddress);
+
+	final TreeSet<Node> tree; // the free nodes of non-empty blocks
+	final Node probe;         // search key, reused by searches
+
+	/**
+	 * Constructs a policy with an empty tree.
+	 */
+	protected SizeOrderedPolicy() {
+		tree = new TreeSet<Node>(BY_LENGTH);
+		probe = new Node(new MemoryBlock(0, 0));
+	}
+
+	/**
+	 * Adds the given node to the tree. Nodes of empty blocks are not kept.
+	 */
+	public void added(Node node) {
+		if (node.block.length > 0) tree.add(node);
+	}
+
+	/**
+	 * Removes the given node from the tree.
+	 */
+	public void removed(Node node) {
+		if (node.block.length > 0) tree.remove(node);
+	}
+
+	/**
+	 * Takes the given node out of the tree while its block changes.
+	 */
+	public void resizing(Node node) {
+		removed(node);
+	}
+
+	/**
+	 * Puts the given node back in the tree, at its new place.
+	 */
+	public void resized(Node node) {
+		added(node);
+	}
+
+	/**
+	 * Gets the number of nodes in the tree.
+	 * @return The number of nodes.
+	 */
+	public int getSize() {
+		return tree.size();
+	}
+}
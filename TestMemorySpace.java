@@ -12,6 +12,32 @@ public class TestMemorySpace {
         testFree();
         testDefrag();
         testComplexScenario();
+        testSegregatedAllocation();
+        testCoalesceOnFree();
+        testBestFitAllocation();
+        testNextFitAllocation();
+        testWorstFitAllocation();
+        testBuddyAllocation();
+        testTlsfAllocation();
+        testCompactMemorySpace();
+        testCompactZeroLengthBlocks();
+        testAllocationFreeHotPath();
+        testConcurrentMemorySpace();
+        testConcurrentDoubleFree();
+        testBatchAllocation();
+        testRealloc();
+        testZeroLengthBlocks();
+        testAlignedAllocation();
+        testBackingStore();
+        testPersistentHeap();
+        testSnapshotAndRestore();
+        testWriteAheadLog();
+        testWriteAheadLogNextFit();
+        testStats();
+        testMetrics();
+        testTracePlayer();
+        testLinkedListPositions();
+        testIndexedBlockList();
 
         System.out.println("All tests completed successfully!");
     }
@@ -98,12 +124,836 @@ public class TestMemorySpace {
         assertString(expected, memory.toString(), "Complex scenario state");
     }
 
+    private static void testSegregatedAllocation() {
+        MemorySpace memory = new MemorySpace(100, new SegregatedFitPolicy());
+        memory.malloc(20); // Allocates at address 0
+        int addr2 = memory.malloc(30); // Allocates at address 20
+        memory.malloc(40); // Allocates at address 50
+
+        memory.free(addr2); // Frees the block at address 20
+        int addr4 = memory.malloc(10); // (90 , 10) is in a bin that may be too short
+
+        assertEqual(20, addr4, "Allocation from the first bin that fits");
+
+        String expected = "(90 , 10) (30 , 20)\n(0 , 20) (50 , 40) (20 , 10)\n";
+        assertString(expected, memory.toString(), "Segregated allocation state");
+        assertEqual(-1, memory.malloc(25), "Segregated allocation failure");
+    }
+
+    private static void testCoalesceOnFree() {
+        MemorySpace memory = new MemorySpace(100, new FirstFitPolicy(), true);
+        memory.malloc(20);
+        int addr2 = memory.malloc(20);
+        int addr3 = memory.malloc(20);
+
+        memory.free(0);
+        memory.free(addr3); // Merges with (60 , 40)
+
+        // The merged block keeps the place of (60 , 40) in the free list, which is before (0 , 20)
+        String beforeLast = "(40 , 60) (0 , 20) \n(20 , 20) ";
+        assertExactString(beforeLast, memory.toString(), "Coalesce with the right neighbor");
+
+        memory.free(addr2); // Merges with both neighbors
+
+        assertExactString("(0 , 100) \n", memory.toString(), "Coalesce with both neighbors");
+    }
+
+    private static void testBestFitAllocation() {
+        MemorySpace memory = new MemorySpace(100, new BestFitPolicy());
+        memory.malloc(10);
+        int addr2 = memory.malloc(50);
+        memory.malloc(5);
+        memory.malloc(30); // Leaves (95 , 5) free
+
+        memory.free(addr2);
+        int addr5 = memory.malloc(5); // First fit would carve it from (10 , 50)
+
+        assertEqual(95, addr5, "Best fit allocation");
+
+        String expected = "(10 , 50)\n(0 , 10) (60 , 5) (65 , 30) (95 , 5)\n";
+        assertString(expected, memory.toString(), "Best fit allocation state");
+    }
+
+    private static void testNextFitAllocation() {
+        MemorySpace memory = new MemorySpace(100, new NextFitPolicy());
+        int addr1 = memory.malloc(50);
+        int addr2 = memory.malloc(50);
+        memory.free(addr1);
+        memory.free(addr2);
+
+        assertEqual(0, memory.malloc(10), "Next fit from the first block");
+        assertEqual(50, memory.malloc(45), "Next fit wraps past a short block");
+        assertEqual(95, memory.malloc(5), "Next fit resumes at the roving pointer");
+
+        String expected = "(10 , 40)\n(0 , 10) (50 , 45) (95 , 5)\n";
+        assertString(expected, memory.toString(), "Next fit allocation state");
+    }
+
+    private static void testWorstFitAllocation() {
+        MemorySpace memory = new MemorySpace(100, new WorstFitPolicy());
+        memory.malloc(10);
+        int addr2 = memory.malloc(60);
+        memory.malloc(10); // Leaves (80 , 20) free
+        memory.free(addr2);
+
+        assertEqual(10, memory.malloc(5), "Worst fit allocation");
+
+        String expected = "(80 , 20) (15 , 55)\n(0 , 10) (70 , 10) (10 , 5)\n";
+        assertString(expected, memory.toString(), "Worst fit allocation state");
+    }
+
+    private static void testBuddyAllocation() {
+        BuddyMemorySpace memory = new BuddyMemorySpace(128);
+        int addr1 = memory.malloc(20); // Rounded up to 32
+        int addr2 = memory.malloc(10); // Rounded up to 16
+
+        assertEqual(0, addr1, "First buddy allocation");
+        assertEqual(32, addr2, "Second buddy allocation");
+        assertString("(64 , 64) (48 , 16)\n(0 , 32) (32 , 16)\n", memory.toString(), "Buddy split state");
+
+        memory.free(addr1);
+        memory.free(addr2); // Merges all the way up
+
+        assertString("(0 , 128)\n", memory.toString(), "Buddy merge state");
+    }
+
+    private static void testTlsfAllocation() {
+        TlsfMemorySpace memory = new TlsfMemorySpace(100);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(30);
+
+        assertEqual(0, addr1, "First TLSF allocation");
+        assertEqual(20, addr2, "Second TLSF allocation");
+
+        memory.free(addr1);
+        assertString("(0 , 20) (50 , 50)\n(20 , 30)\n", memory.toString(), "TLSF free state");
+
+        memory.free(addr2); // Merges with both neighbors
+        assertString("(0 , 100)\n", memory.toString(), "TLSF merge state");
+        assertEqual(0, memory.malloc(100), "TLSF allocation of the whole memory");
+    }
+
+    private static void testCompactMemorySpace() {
+        CompactMemorySpace memory = new CompactMemorySpace(100);
+        memory.malloc(20);
+        memory.malloc(20);
+        int addr3 = memory.malloc(20);
+
+        memory.free(0);
+        memory.free(addr3);
+
+        String beforeDefrag = "(0 , 20) (40 , 20) (60 , 40)\n(20 , 20)\n";
+        assertString(beforeDefrag, memory.toString(), "Compact store before defrag");
+
+        memory.defrag();
+
+        String afterDefrag = "(0 , 20) (40 , 60)\n(20 , 20)\n";
+        assertString(afterDefrag, memory.toString(), "Compact store after defrag");
+    }
+
+    private static void testCompactZeroLengthBlocks() {
+        for (boolean coalesce : new boolean[] {false, true}) {
+            CompactMemorySpace compact = new CompactMemorySpace(100, coalesce);
+            MemorySpace reference = new MemorySpace(100, new FirstFitPolicy(), coalesce);
+            // The empty block and the block after it share the base address 0
+            compact.malloc(0);
+            reference.malloc(0);
+            compact.malloc(70);
+            reference.malloc(70);
+            compact.free(0);
+            reference.free(0);
+            assertExactString(reference.toString(), compact.toString(), "Compact free after malloc(0)");
+            compact.free(0);
+            reference.free(0);
+            assertExactString(reference.toString(), compact.toString(), "Compact free of the block after it");
+
+            // The same pseudo-random operations, many of them on empty blocks, keep both spaces identical
+            compact = new CompactMemorySpace(1000, coalesce);
+            reference = new MemorySpace(1000, new FirstFitPolicy(), coalesce);
+            java.util.Random random = new java.util.Random(5);
+            int[] addresses = new int[64];
+            for (int op = 0; op < 20000; op++) {
+                int k = random.nextInt(addresses.length);
+                if (random.nextInt(3) == 0) {
+                    int length = (random.nextInt(4) == 0) ? 0 : random.nextInt(80);
+                    addresses[k] = compact.malloc(length);
+                    assertEqual(reference.malloc(length), addresses[k], "Compact malloc " + op);
+                } else if (random.nextInt(50) == 0) {
+                    compact.defrag();
+                    reference.defrag();
+                } else {
+                    // A free of a block that was freed before is ignored by both spaces,
+                    // unless no block is allocated at all
+                    MemorySpace space = reference;
+                    int address = addresses[k];
+                    try {
+                        compact.free(address);
+                    } catch (IllegalArgumentException e) {
+                        assertRejected(() -> space.free(address), "Compact free " + op);
+                        continue;
+                    }
+                    reference.free(address);
+                }
+                assertExactString(reference.toString(), compact.toString(), "Compact state after " + op);
+            }
+        }
+    }
+
+    private static void testAllocationFreeHotPath() {
+        MemorySpace memory = new MemorySpace(1 << 16, new FirstFitPolicy(), true);
+        int[] addresses = new int[256];
+        // Warms up the memory space to its peak number of blocks, and then replays the same workload
+        runRandomWorkload(memory, addresses, 1_000_000);
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        // Without per-thread allocation counters both readings would be -1, and the check would pass
+        // without measuring anything, so the measurement is skipped loudly instead
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("Skipped the allocation-free hot path test: "
+                    + "this JVM cannot measure the memory that a thread allocates");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        runRandomWorkload(memory, addresses, 1_000_000);
+        long after = threads.getCurrentThreadAllocatedBytes();
+        if (before < 0 || after < 0) {
+            throw new AssertionError("malloc/free hot path: the allocated bytes could not be measured");
+        }
+        if (after - before != 0) {
+            throw new AssertionError("malloc/free hot path: Expected no allocation but got "
+                    + (after - before) + " bytes");
+        }
+    }
+
+    // Runs a fixed pseudo-random sequence of malloc and free calls over a window of addresses,
+    // and frees all the blocks that are left at the end
+    private static void runRandomWorkload(MemorySpace memory, int[] addresses, int ops) {
+        java.util.Arrays.fill(addresses, -1);
+        int seed = 0x2545F491;
+        for (int i = 0; i < ops; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int slot = (seed >>> 8) & (addresses.length - 1);
+            if (addresses[slot] == -1) {
+                addresses[slot] = memory.malloc(1 + (seed & 63));
+            } else {
+                memory.free(addresses[slot]);
+                addresses[slot] = -1;
+            }
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] != -1) memory.free(addresses[i]);
+        }
+    }
+
+    private static void testConcurrentMemorySpace() {
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(100, 2);
+        assertEqual(0, memory.malloc(40), "Concurrent malloc from the home arena");
+        // The home arena has only 10 free words left, so the block is stolen from the other arena
+        assertEqual(50, memory.malloc(40), "Concurrent malloc stolen from another arena");
+        assertEqual(-1, memory.malloc(20), "Concurrent malloc failure");
+        memory.free(50);
+        assertEqual(50, memory.malloc(20), "Concurrent malloc after free");
+        assertEqual(40, memory.malloc(10), "Concurrent malloc of the home arena's remainder");
+    }
+
+    private static void testConcurrentDoubleFree() {
+        // The slab is the top 10 blocks of 4 words, from address 160
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(200, 2, "first-fit", true, 4, 10);
+        int slabBlock = memory.malloc(4);
+        assertEqual(160, slabBlock, "Slab malloc");
+        memory.free(slabBlock);
+        assertRejected(() -> memory.free(slabBlock), "Slab double free");
+        assertRejected(() -> memory.free(164), "Slab free of a block that was never allocated");
+        // The slab still hands out every block once
+        assertEqual(160, memory.malloc(4), "Slab malloc after a rejected free");
+        assertEqual(164, memory.malloc(4), "Slab malloc of the next block");
+        assertEqual(168, memory.malloc(4), "Slab malloc of the block after it");
+
+        int arenaBlock = memory.malloc(20);
+        memory.free(arenaBlock);
+        assertRejected(() -> memory.free(arenaBlock), "Arena double free");
+    }
+
+    private static void testBatchAllocation() {
+        MemorySpace memory = new MemorySpace(100);
+        int[] addresses = new int[4];
+        memory.mallocBatch(new int[] {20, 20, 20, 20}, addresses);
+        memory.freeBatch(new int[] {addresses[0], addresses[2]});
+
+        int[] lengths = {30, 10, 20, 5};
+        int[] out = new int[lengths.length];
+        assertEqual(3, memory.mallocBatch(lengths, out), "Batch malloc count");
+        // The same addresses as first-fit malloc, one block at a time
+        assertEqual(-1, out[0], "Batch malloc failure");
+        assertEqual(80, out[1], "Batch malloc first fit");
+        assertEqual(0, out[2], "Batch malloc exact fit");
+        assertEqual(90, out[3], "Batch malloc in the rest of a block");
+
+        // The lists must be in exactly the order of malloc and free, one block at a time
+        MemorySpace sequential = new MemorySpace(100);
+        for (int i = 0; i < 4; i++) {
+            sequential.malloc(20);
+        }
+        sequential.free(addresses[0]);
+        sequential.free(addresses[2]);
+        for (int i = 0; i < lengths.length; i++) {
+            sequential.malloc(lengths[i]);
+        }
+        String expected = "(95 , 5) (40 , 20) \n(20 , 20) (60 , 20) (80 , 10) (0 , 20) (90 , 5) ";
+        if (!sequential.toString().equals(expected)) {
+            throw new AssertionError("Sequential malloc and free:\nExpected: " + expected + "\nActual: " + sequential);
+        }
+        if (!memory.toString().equals(sequential.toString())) {
+            throw new AssertionError("Batch malloc and free:\nExpected: " + sequential + "\nActual: " + memory);
+        }
+    }
+
+    private static void testRealloc() {
+        MemorySpace memory = new MemorySpace(100);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(20);
+
+        assertEqual(0, addr1, "Realloc first block");
+        assertEqual(20, addr2, "Realloc second block");
+        assertEqual(addr2, memory.realloc(addr2, 50), "Realloc grows in place");
+        assertExactString("(70 , 30) \n(0 , 20) (20 , 50) ", memory.toString(), "Realloc takes the start of the next block");
+        assertEqual(addr2, memory.realloc(addr2, 30), "Realloc shrinks in place");
+        assertExactString("(50 , 50) \n(0 , 20) (20 , 30) ", memory.toString(), "Realloc returns the tail");
+
+        // The block after addr1 is allocated, so addr1 is relocated
+        assertEqual(50, memory.realloc(addr1, 25), "Realloc relocates");
+        assertExactString("(75 , 25) (0 , 20) \n(20 , 30) (50 , 25) ", memory.toString(), "Realloc after relocation");
+        assertEqual(-1, memory.realloc(50, 60), "Realloc failure");
+        assertExactString("(75 , 25) (0 , 20) \n(20 , 30) (50 , 25) ", memory.toString(), "Realloc after a failure");
+        assertRejected(() -> memory.realloc(50, 0), "Realloc to length 0");
+        memory.free(50);
+        assertExactString("(75 , 25) (0 , 20) (50 , 25) \n(20 , 30) ", memory.toString(), "Free after a rejected realloc");
+    }
+
+    private static void testZeroLengthBlocks() {
+        MemorySpace memory = new MemorySpace(100, new FirstFitPolicy(), false, true);
+        // An empty block shares its base address with the block allocated after it
+        int empty = memory.malloc(0);
+        int addr = memory.malloc(10);
+        assertEqual(0, empty, "Empty block address");
+        assertEqual(0, addr, "Block after an empty block");
+        memory.store(addr, 3, 7);
+        assertEqual(7, memory.load(addr, 3), "Load at a shared base address");
+        // free releases the blocks at a shared base address in allocation order
+        memory.free(empty);
+        assertExactString("(10 , 90) (0 , 0) \n(0 , 10) ", memory.toString(), "Free the empty block");
+        memory.free(addr);
+        assertExactString("(10 , 90) (0 , 0) (0 , 10) \n", memory.toString(), "Free the block after it");
+
+        // Removing a node of another list looks up its block, and fails if it is not there
+        LinkedList list = new LinkedList();
+        LinkedList other = new LinkedList();
+        list.addLast(new MemoryBlock(0, 10));
+        other.addLast(new MemoryBlock(10, 10));
+        Node foreign = other.getNode(0);
+        boolean thrown = false;
+        try {
+            list.remove(foreign);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        if (!thrown) throw new AssertionError("remove of a foreign node: Expected an exception");
+        assertEqual(1, list.getSize(), "Foreign remove leaves this list");
+        assertEqual(1, other.getSize(), "Foreign remove leaves the other list");
+        other.remove(foreign);
+        assertEqual(0, other.getSize(), "Remove of an own node");
+    }
+
+    private static void testAlignedAllocation() {
+        MemorySpace memory = new MemorySpace(100);
+        memory.malloc(10);
+        assertEqual(16, memory.mallocAligned(20, 16), "Aligned malloc");
+        // The padding before the aligned block remains free
+        assertString("(36 , 64) (10 , 6)\n(0 , 10) (16 , 20)\n", memory.toString(), "Aligned malloc padding");
+        // No free block has 36 + 63 words, but the block at 36 holds an aligned block at 64
+        assertEqual(64, memory.mallocAligned(36, 64), "Aligned malloc in a tight block");
+        assertEqual(-1, memory.mallocAligned(5, 128), "Aligned malloc failure");
+        // length + alignment - 1 overflows an int, and the memory space is left as it was
+        String before = memory.toString();
+        assertEqual(-1, memory.mallocAligned(Integer.MAX_VALUE, 64), "Aligned malloc of a huge block");
+        assertEqual(-1, memory.mallocAligned(90, 1 << 30), "Aligned malloc with a huge alignment");
+        if (!memory.toString().equals(before)) {
+            throw new AssertionError("Failed aligned malloc:\nExpected: " + before + "\nActual: " + memory);
+        }
+        assertEqual(34, (int) memory.stats().getFreeWords(), "Free words after a failed aligned malloc");
+    }
+
+    private static void testBackingStore() {
+        MemorySpace memory = new MemorySpace(100, new FirstFitPolicy(), false, true);
+        int addr1 = memory.malloc(10);
+        int addr2 = memory.malloc(10);
+        for (int i = 0; i < 10; i++) {
+            memory.store(addr1, i, i);
+        }
+        memory.memcpy(addr2, 0, addr1, 5, 5);
+        assertEqual(7, memory.load(addr2, 2), "memcpy between blocks");
+        memory.memmove(addr1, 2, addr1, 0, 8);
+        assertEqual(5, memory.load(addr1, 7), "memmove within a block");
+        memory.memset(addr2, 5, 5, -1);
+        assertEqual(-1, memory.load(addr2, 9), "memset");
+
+        // Growing addr1 relocates it, and its contents move with it
+        int moved = memory.realloc(addr1, 30);
+        assertEqual(20, moved, "Realloc of a backed block");
+        assertEqual(5, memory.load(moved, 7), "Realloc copies the contents");
+
+        boolean thrown = false;
+        try {
+            memory.load(addr2, 10);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        if (!thrown) throw new AssertionError("load past the end of a block: Expected an exception");
+    }
+
+    private static void testPersistentHeap() {
+        try {
+            java.nio.file.Path path = java.nio.file.Files.createTempFile("heap", ".bin");
+            java.nio.file.Files.delete(path);
+            PersistentHeap heap = new PersistentHeap(path, 100, new FirstFitPolicy(), false, true);
+            MemorySpace memory = heap.memory();
+            int addr1 = memory.malloc(20);
+            int addr2 = memory.malloc(30);
+            memory.store(addr1, 3, 42);
+            memory.free(addr2);
+            memory.malloc(10);
+            String state = memory.toString();
+            heap.close();
+
+            // A new heap on the same file reattaches to the saved state
+            heap = new PersistentHeap(path, 100, new FirstFitPolicy(), false, true);
+            assertString(state, heap.memory().toString(), "Persistent heap after reopening");
+            assertEqual(42, heap.memory().load(addr1, 3), "Persistent heap words after reopening");
+            heap.close();
+
+            // A sync that crashed before its temporary file replaced the heap file leaves the heap intact
+            java.nio.file.Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            java.nio.file.Files.write(temporary, new byte[] {1, 2, 3});
+            heap = new PersistentHeap(path, 100, new FirstFitPolicy(), false, true);
+            assertString(state, heap.memory().toString(), "Persistent heap after a crashed sync");
+            heap.close();
+            if (java.nio.file.Files.exists(temporary)) {
+                throw new AssertionError("Persistent heap: Expected sync to move its temporary file");
+            }
+
+            // A heap file saved with another coalescing mode is rejected
+            assertRejected(() -> {
+                try {
+                    new PersistentHeap(path, 100, new FirstFitPolicy(), true, true);
+                } catch (java.io.IOException e) {
+                    throw new AssertionError(e);
+                }
+            }, "Persistent heap with another coalescing mode");
+
+            // A corrupted file is rejected
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(path,
+                    java.nio.file.StandardOpenOption.WRITE)) {
+                channel.write(java.nio.ByteBuffer.wrap(new byte[] {7}), 40);
+            }
+            boolean thrown = false;
+            try {
+                new PersistentHeap(path, 100, new FirstFitPolicy(), false, true);
+            } catch (java.io.IOException e) {
+                thrown = true;
+            }
+            java.nio.file.Files.delete(path);
+            if (!thrown) throw new AssertionError("Persistent heap: Expected a checksum mismatch");
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Persistent heap: " + e);
+        }
+    }
+
+    private static void testSnapshotAndRestore() {
+        MemorySpace memory = new MemorySpace(1 << 20);
+        int[] addresses = new int[1000];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = memory.malloc(1 + i % 17);
+        }
+        for (int i = 0; i < addresses.length; i += 3) {
+            memory.free(addresses[i]);
+        }
+        try {
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+            memory.snapshot(java.nio.channels.Channels.newChannel(bytes));
+            MemorySpace restored = new MemorySpace(1 << 20);
+            restored.restore(java.nio.channels.Channels.newChannel(
+                    new java.io.ByteArrayInputStream(bytes.toByteArray())));
+            assertString(memory.toString(), restored.toString(), "Restored snapshot");
+            // The restored memory space keeps working like the original one
+            assertEqual(memory.malloc(5), restored.malloc(5), "malloc after restore");
+
+            // A snapshot with a free block of 500 words, of a memory space of 100 words
+            bytes.reset();
+            VarintCodec.Writer out = new VarintCodec.Writer(java.nio.channels.Channels.newChannel(bytes));
+            out.writeBytes(new byte[] {'M', 'S', 'S', 'N'});
+            out.writeInt(1);
+            out.writeInt(100);
+            out.writeInt(1);
+            out.writeSignedInt(0);
+            out.writeInt(500);
+            out.writeInt(0);
+            out.flush();
+            MemorySpace small = new MemorySpace(100);
+            small.malloc(10);
+            String before = small.toString();
+            boolean thrown = false;
+            try {
+                small.restore(java.nio.channels.Channels.newChannel(
+                        new java.io.ByteArrayInputStream(bytes.toByteArray())));
+            } catch (java.io.IOException e) {
+                thrown = true;
+            }
+            if (!thrown) throw new AssertionError("Snapshot with a block outside the memory space: Expected an exception");
+            assertString(before, small.toString(), "Memory space after an invalid snapshot");
+            assertEqual(1, small.stats().getFreeBlocks(), "Free blocks after an invalid snapshot");
+
+            // A snapshot with adjacent free blocks, restored into a memory space that coalesces on free
+            MemorySpace separate = new MemorySpace(100);
+            separate.free(separate.malloc(20));
+            separate.free(separate.malloc(20));
+            assertExactString("(40 , 60) (0 , 20) (20 , 20) \n", separate.toString(), "Snapshot without coalescing");
+            bytes.reset();
+            separate.snapshot(java.nio.channels.Channels.newChannel(bytes));
+            MemorySpace coalescing = new MemorySpace(100, new FirstFitPolicy(), true);
+            coalescing.restore(java.nio.channels.Channels.newChannel(
+                    new java.io.ByteArrayInputStream(bytes.toByteArray())));
+            assertExactString("(0 , 100) \n", coalescing.toString(), "Restore into a coalescing memory space");
+            assertEqual(0, coalescing.malloc(80), "malloc after restoring into a coalescing memory space");
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Snapshot: " + e);
+        }
+    }
+
+    private static void testWriteAheadLog() {
+        try {
+            java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("wal");
+            DurableMemorySpace memory = new DurableMemorySpace(directory, 100, new FirstFitPolicy(), false,
+                    DurableMemorySpace.SyncMode.SYNC, 64);
+            int addr1 = memory.malloc(20);
+            int addr2 = memory.malloc(30);
+            memory.checkpoint();
+            memory.free(addr1);
+            int addr3 = memory.realloc(addr2, 40);
+            memory.malloc(5);
+            memory.commit();
+            String committed = memory.toString();
+            // Operations that are not committed are lost in a crash
+            memory.free(addr3);
+
+            DurableMemorySpace recovered = new DurableMemorySpace(directory, 100, new FirstFitPolicy(), false,
+                    DurableMemorySpace.SyncMode.SYNC, 64);
+            assertString(committed, recovered.toString(), "Recovery from a snapshot and a log");
+            recovered.free(addr3);
+            recovered.defrag();
+            recovered.close();
+            String closed = recovered.toString();
+
+            // A frame that a crash cut short is dropped
+            java.nio.file.Path log = directory.resolve("wal.log");
+            java.nio.file.Files.write(log, new byte[] {0, 0, 0, 9, 1, 2}, java.nio.file.StandardOpenOption.APPEND);
+            recovered = new DurableMemorySpace(directory, 100, new FirstFitPolicy(), false,
+                    DurableMemorySpace.SyncMode.SYNC);
+            assertString(closed, recovered.toString(), "Recovery after a torn frame");
+            recovered.close();
+            // Releases the log file of the instance that "crashed"
+            memory.close();
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(directory)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(directory);
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Write-ahead log: " + e);
+        }
+    }
+
+    private static void testWriteAheadLogNextFit() {
+        try {
+            java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("wal");
+            DurableMemorySpace memory = new DurableMemorySpace(directory, 1000, new NextFitPolicy(), false,
+                    DurableMemorySpace.SyncMode.SYNC);
+            int[] addresses = new int[20];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = memory.malloc(50);
+            }
+            memory.free(addresses[3]);
+            memory.free(addresses[8]);
+            memory.free(addresses[15]);
+            memory.malloc(20);
+            memory.malloc(40);
+            // The roving pointer of next-fit is not in the snapshot, so a policy that replayed
+            // the next malloc would start from the head of the free list and choose another block
+            memory.checkpoint();
+            int moved = memory.realloc(memory.malloc(5), 60);
+            memory.malloc(5);
+            memory.commit();
+            String committed = memory.toString();
+            memory.close();
+
+            DurableMemorySpace recovered = new DurableMemorySpace(directory, 1000, new NextFitPolicy(), false,
+                    DurableMemorySpace.SyncMode.SYNC);
+            if (!committed.equals(recovered.toString())) {
+                throw new AssertionError("Recovery with next-fit:\nExpected: " + committed + "\nActual: " + recovered);
+            }
+            recovered.free(moved);
+            recovered.close();
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(directory)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(directory);
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Write-ahead log with next-fit: " + e);
+        }
+    }
+
+    private static void testStats() {
+        MemorySpace memory = new MemorySpace(1 << 20);
+        MemorySpaceStats stats = memory.stats();
+        int[] addresses = new int[100];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = memory.malloc(100 + i);
+        }
+        memory.free(addresses[10]);
+        memory.free(addresses[50]);
+        int remaining = (1 << 20) - 100 * 100 - 4950;
+        assertEqual(3, stats.getFreeBlocks(), "Stats free blocks");
+        assertEqual(98, stats.getAllocatedBlocks(), "Stats allocated blocks");
+        assertEqual(remaining + 110 + 150, (int) stats.getFreeWords(), "Stats free words");
+        assertEqual(remaining, stats.getLargestFreeBlock(), "Stats largest free block");
+
+        // The largest free block shrinks, and then the next largest one takes over
+        memory.malloc(remaining);
+        assertEqual(150, stats.getLargestFreeBlock(), "Stats largest free block after malloc");
+        memory.malloc(150);
+        assertEqual(110, stats.getLargestFreeBlock(), "Stats largest free block after exact fit");
+        if (Math.abs(memory.fragmentation()) > 1e-9) {
+            throw new AssertionError("Stats fragmentation: Expected 0 but got " + memory.fragmentation());
+        }
+    }
+
+    private static void testMetrics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEqual(1000, (int) histogram.getCount(), "Histogram count");
+        assertEqual(1000, (int) histogram.getMax(), "Histogram max");
+        // Each percentile is at most 1/16 above the exact one
+        long p50 = histogram.getP50();
+        if (p50 < 500 || p50 > 500 + 500 / 16) {
+            throw new AssertionError("Histogram p50: Expected about 500 but got " + p50);
+        }
+        assertEqual(1000, (int) histogram.getP999(), "Histogram p999");
+
+        MemorySpace memory = new MemorySpace(100);
+        MemorySpaceMetrics metrics = new MemorySpaceMetrics();
+        memory.malloc(10);
+        memory.setMetrics(metrics);
+        int address = memory.malloc(20);
+        memory.malloc(30);
+        memory.free(address);
+        // No free block fits, so malloc examines both (60 , 40) and (10 , 20)
+        assertEqual(-1, memory.malloc(50), "Metrics failed malloc");
+        memory.defrag();
+        assertEqual(3, (int) metrics.getMallocLatency().getCount(), "Metrics malloc count");
+        assertEqual(1, (int) metrics.getFreeLatency().getCount(), "Metrics free count");
+        assertEqual(1, (int) metrics.getDefragLatency().getCount(), "Metrics defrag count");
+        assertEqual(2, (int) metrics.getMallocScanDepth().getMax(), "Metrics scan depth");
+
+        // Each request of a batch, and each aligned malloc, is recorded as a malloc
+        metrics.reset();
+        memory = new MemorySpace(100);
+        memory.setMetrics(metrics);
+        memory.mallocBatch(new int[] {10, 20, 200}, new int[3]);
+        memory.mallocAligned(5, 16);
+        assertEqual(4, (int) metrics.getMallocLatency().getCount(), "Metrics batch and aligned malloc count");
+        assertEqual(4, (int) metrics.getMallocScanDepth().getCount(), "Metrics batch and aligned scan depth count");
+        assertEqual(1, (int) metrics.getMallocScanDepth().getMax(), "Metrics batch and aligned scan depth");
+    }
+
+    private static void testTracePlayer() {
+        MemorySpace memory = new MemorySpace(100);
+        TracePlayer player = new TracePlayer(memory);
+        String trace = "# a comment\n"
+                + "a x 30\n"
+                + "a y 30\n"
+                + "a z 50\n"   // fails: only 40 words are free
+                + "a x 5\n"    // fails: x is still live
+                + "\n"
+                + "f y\n"
+                + "f q\n"      // unknown id
+                + "b 3\n"      // malformed: unknown operation
+                + "a w abc\n"  // malformed: the size is not a number
+                + "a v 10\n";
+        player.play(new In(new java.util.Scanner(trace)));
+        assertEqual(7, (int) player.getOperations(), "Trace operations");
+        assertEqual(2, (int) player.getFailedAllocs(), "Trace failed allocs");
+        assertEqual(1, (int) player.getFailedFrees(), "Trace unknown frees");
+        assertEqual(2, (int) player.getMalformedLines(), "Trace malformed lines");
+        assertEqual(5, (int) player.getFailures(), "Trace failures");
+        // v is taken from (60 , 40), so the free words are (70 , 30) and (30 , 30)
+        assertString("(70 , 30) (30 , 30)\n(0 , 30) (60 , 10)\n", memory.toString(), "Trace replay");
+        if (memory.fragmentation() != 0.5) {
+            throw new AssertionError("Trace fragmentation: Expected 0.5 but got " + memory.fragmentation());
+        }
+    }
+
+    private static void testLinkedListPositions() {
+        LinkedList list = new LinkedList();
+        for (int i = 1; i <= 5; i++) {
+            list.addLast(new MemoryBlock(i * 10, 10));
+        }
+        // getNode walks from the first node below the middle, and from the last node above it
+        for (int i = 0; i < 5; i++) {
+            assertEqual((i + 1) * 10, list.getNode(i).block.baseAddress, "getNode " + i);
+        }
+
+        Node head = list.getFirst();
+        Node tail = list.getLast();
+        Node middle = list.getNode(2);
+        Node beforeHead = list.addBefore(head, new MemoryBlock(0, 1));
+        Node afterTail = list.addAfter(tail, new MemoryBlock(60, 1));
+        Node beforeMiddle = list.addBefore(middle, new MemoryBlock(25, 1));
+        Node afterMiddle = list.addAfter(middle, new MemoryBlock(35, 1));
+        if (list.getFirst() != beforeHead || list.getLast() != afterTail) {
+            throw new AssertionError("addBefore head and addAfter tail: Expected new first and last nodes");
+        }
+        if (beforeMiddle.next != middle || afterMiddle.prev != middle) {
+            throw new AssertionError("addBefore and addAfter middle: Expected the new nodes next to the middle");
+        }
+        assertString("(0 , 1) (10 , 10) (20 , 10) (25 , 1) (30 , 10) (35 , 1) (40 , 10) (50 , 10) (60 , 1)",
+                list.toString(), "addBefore and addAfter");
+        assertLinks(list.getFirst(), list.getLast(), list.getSize(), "addBefore and addAfter");
+        for (int i = 0; i < list.getSize(); i++) {
+            assertEqual(list.getBlock(i).baseAddress, list.getNode(i).block.baseAddress, "getNode after adds " + i);
+        }
+
+        list.remove(middle);
+        list.remove(list.getFirst());
+        list.remove(list.getLast());
+        assertLinks(list.getFirst(), list.getLast(), list.getSize(), "remove head, tail and middle");
+        assertEqual(6, list.getSize(), "Size after removes");
+    }
+
+    private static void testIndexedBlockList() {
+        IndexedBlockList indexed = new IndexedBlockList();
+        LinkedList linked = new LinkedList();
+        // Runs the same pseudo-random operations on both lists, which must stay identical
+        java.util.Random random = new java.util.Random(7);
+        for (int op = 0; op < 2000; op++) {
+            int size = linked.getSize();
+            MemoryBlock block = new MemoryBlock(op, 1);
+            int choice = (size == 0) ? 0 : random.nextInt(6);
+            if (choice == 0) {
+                int index = random.nextInt(size + 1);
+                indexed.add(index, block);
+                linked.add(index, block);
+            } else if (choice == 1) {
+                int index = random.nextInt(size);
+                indexed.addBefore(indexed.getNode(index), block);
+                linked.addBefore(linked.getNode(index), block);
+            } else if (choice == 2) {
+                int index = random.nextInt(size);
+                indexed.addAfter(indexed.getNode(index), block);
+                linked.addAfter(linked.getNode(index), block);
+            } else if (choice == 3) {
+                int index = random.nextInt(size);
+                indexed.remove(indexed.getNode(index));
+                linked.remove(linked.getNode(index));
+            } else if (choice == 4) {
+                int index = random.nextInt(size);
+                indexed.remove(index);
+                linked.remove(index);
+            } else {
+                int index = random.nextInt(size);
+                assertEqual(linked.getBlock(index).baseAddress, indexed.getBlock(index).baseAddress,
+                        "IndexedBlockList getBlock " + index);
+                MemoryBlock found = linked.getBlock(index);
+                assertEqual(linked.indexOf(found), indexed.indexOf(found), "IndexedBlockList indexOf");
+            }
+            assertEqual(linked.getSize(), indexed.getSize(), "IndexedBlockList size");
+        }
+        if (!linked.toString().equals(indexed.toString())) {
+            throw new AssertionError("IndexedBlockList order:\nExpected: " + linked + "\nActual: " + indexed);
+        }
+        assertLinks(indexed.getFirst(), indexed.getLast(), indexed.getSize(), "IndexedBlockList links");
+        int index = 0;
+        ListIterator iterator = indexed.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() != indexed.getNode(index).block) {
+                throw new AssertionError("IndexedBlockList iteration: Expected the block at index " + index);
+            }
+            index++;
+        }
+        assertEqual(indexed.getSize(), index, "IndexedBlockList iteration length");
+
+        // A node of another list is looked up by its block, and rejected if it is not there
+        int size = indexed.getSize();
+        indexed.remove(linked.getFirst());
+        assertEqual(size - 1, indexed.getSize(), "IndexedBlockList remove of a foreign node");
+        boolean thrown = false;
+        try {
+            indexed.remove(new Node(new MemoryBlock(-1, 1)));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        if (!thrown) throw new AssertionError("IndexedBlockList remove of a missing block: Expected an exception");
+    }
+
+    // Checks that the next and prev pointers from first to last agree, and count size nodes
+    private static void assertLinks(Node first, Node last, int size, String message) {
+        if (first != null && first.prev != null) {
+            throw new AssertionError(message + ": Expected no node before the first node");
+        }
+        int count = 0;
+        Node previous = null;
+        for (Node current = first; current != null; current = current.next) {
+            if (current.prev != previous) {
+                throw new AssertionError(message + ": Expected prev of " + current + " to be " + previous);
+            }
+            previous = current;
+            count++;
+        }
+        if (previous != last) {
+            throw new AssertionError(message + ": Expected the walk to end at the last node");
+        }
+        assertEqual(size, count, message + " size");
+    }
+
     private static void assertEqual(int expected, int actual, String message) {
         if (expected != actual) {
             throw new AssertionError(message + ": Expected " + expected + " but got " + actual);
         }
     }
 
+    private static void assertRejected(Runnable operation, String message) {
+        try {
+            operation.run();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError(message + ": Expected an IllegalArgumentException");
+    }
+
+    // Compares the strings exactly, so unlike assertString it sees which list a block is in, and the order
+    private static void assertExactString(String expected, String actual, String message) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(message + ":\nExpected: " + expected + "\nActual: " + actual);
+        }
+    }
+
     private static void assertString(String expected, String actual, String message) {
         // Normalize and split the strings into sets of blocks
         String[] expectedBlocks = normalizeString(expected).split("\\)\\(");
@@ -0,0 +1,255 @@
+/**
+ * Represents a managed memory space that allocates by two-level segregated fit (TLSF).
+ * The free blocks are kept in segregated lists that are indexed at two levels: the first
+ * level splits lengths by powers of two, and the second level splits each power-of-two
+ * range into 32 equal parts. A bitmap of the non-empty lists at each level lets malloc
+ * find a suitable list with Long.numberOfTrailingZeros, and free merges the released
+ * block with its physical neighbors through boundary tags. Both run in constant time,
+ * regardless of the number of blocks in the memory space.
+ * <p>
+ * A request is rounded up to the start of the next second-level range before the search,
+ * so that every block in the found list is long enough. If no such list exists, the head
+ * of the request's own list is tried as well.
+ * <p>
+ * This class has the same malloc, free and toString contract as MemorySpace. The free
+ * blocks are listed in address order, and the allocated blocks in allocation order.
+ */
+public class TlsfMemorySpace {
+
+	private static final int NONE = -1;
+
+	// Each first-level range is split into 2^SL_LOG second-level lists
+	private static final int SL_LOG = 5;
+	private static final int SL_COUNT = 1 << SL_LOG;
+	// Lengths below SMALL all map to first level 0, one list per length
+	private static final int SMALL = 1 << SL_LOG;
+	private static final int FL_COUNT = 32 - SL_LOG;
+
+	// Block states
+	private static final byte NO_BLOCK = 0;
+	private static final byte FREE = 1;
+	private static final byte USED = 2;
+
+	private final int maxSize;        // the size of the managed memory space
+	private long flBitmap;            // bit f is set if some list of first level f is not empty
+	private final long[] slBitmap;    // bit s of slBitmap[f] is set if list (f, s) is not empty
+	private final int[] heads;        // heads[f * SL_COUNT + s] is the first block of list (f, s)
+	private final byte[] state;       // state[a] is the state of the block at a
+	private final int[] size;         // size[a] is the length of the block at a
+	private final int[] prevPhys;     // prevPhys[a] is the block that ends where the block at a begins
+	private final int[] next;         // next[a] is the block that follows the block at a in its list
+	private final int[] prev;         // prev[a] is the block that precedes the block at a in its list
+	private int allocatedFirst;       // the first allocated block, in allocation order, or NONE
+	private int allocatedLast;        // the last allocated block, in allocation order, or NONE
+	private int allocatedCount;       // number of allocated blocks
+
+	// The list that mapping() found: its first and second level
+	private int fl;
+	private int sl;
+
+	/**
+	 * Constructs a new TLSF memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @throws IllegalArgumentException
+	 *         if maxSize is not positive
+	 */
+	public TlsfMemorySpace(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+		slBitmap = new long[FL_COUNT];
+		heads = new int[FL_COUNT * SL_COUNT];
+		java.util.Arrays.fill(heads, NONE);
+		state = new byte[maxSize];
+		size = new int[maxSize];
+		prevPhys = new int[maxSize];
+		next = new int[maxSize];
+		prev = new int[maxSize];
+		allocatedFirst = NONE;
+		allocatedLast = NONE;
+		size[0] = maxSize;
+		prevPhys[0] = NONE;
+		insertFree(0);
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). Returns the
+	 * base address of the allocated block, or -1 if unable to allocate.
+	 * A request for less than one word is served with a block of one word.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		if (length < 1) length = 1;
+		if (length > maxSize) return -1;
+		int address = findFree(length);
+		if (address == NONE) return -1;
+		removeFree(address);
+		int rest = size[address] - length;
+		if (rest > 0) {
+			// Splits the block, and returns its tail to the free lists
+			int tail = address + length;
+			size[address] = length;
+			size[tail] = rest;
+			prevPhys[tail] = address;
+			if (tail + rest < maxSize) prevPhys[tail + rest] = tail;
+			insertFree(tail);
+		}
+		state[address] = USED;
+		appendAllocated(address);
+		return address;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, and
+	 * merges it with the free blocks that are physically next to it.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if no block is allocated
+	 */
+	public void free(int address) {
+		if (allocatedCount == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		if (address < 0 || address >= maxSize || state[address] != USED) return;
+		removeAllocated(address);
+		int right = address + size[address];
+		if (right < maxSize && state[right] == FREE) {
+			removeFree(right);
+			absorb(address, right);
+		}
+		int left = prevPhys[address];
+		if (left != NONE && state[left] == FREE) {
+			removeFree(left);
+			absorb(left, address);
+			address = left;
+		}
+		insertFree(address);
+	}
+
+	/**
+	 * Does nothing: free blocks are merged as soon as they are released.
+	 */
+	public void defrag() {
+	}
+
+	/**
+	 * A textual representation of the free blocks and the allocated blocks of this
+	 * memory space, for debugging purposes.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int a = 0; a < maxSize; a += size[a]) {
+			if (state[a] == FREE) appendBlock(str, a);
+		}
+		str.append('\n');
+		for (int a = allocatedFirst; a != NONE; a = next[a]) {
+			appendBlock(str, a);
+		}
+		return str.toString();
+	}
+
+	// Returns a free block that can hold the given length, or NONE
+	private int findFree(int length) {
+		// Rounds the length up to the next second-level range, so that any block fits
+		int rounded = (length < SMALL) ? length
+				: length + (1 << (31 - Integer.numberOfLeadingZeros(length) - SL_LOG)) - 1;
+		if (rounded > 0) {
+			mapping(rounded);
+			long slMap = slBitmap[fl] & (-1L << sl);
+			if (slMap == 0) {
+				long flMap = (fl + 1 < FL_COUNT) ? flBitmap & (-1L << (fl + 1)) : 0;
+				if (flMap != 0) {
+					fl = Long.numberOfTrailingZeros(flMap);
+					slMap = slBitmap[fl];
+				}
+			}
+			if (slMap != 0) {
+				return heads[fl * SL_COUNT + Long.numberOfTrailingZeros(slMap)];
+			}
+		}
+		// Tries the head of the request's own list
+		mapping(length);
+		int head = heads[fl * SL_COUNT + sl];
+		return (head != NONE && size[head] >= length) ? head : NONE;
+	}
+
+	// Sets fl and sl to the list of the given length
+	private void mapping(int length) {
+		if (length < SMALL) {
+			fl = 0;
+			sl = length;
+		} else {
+			int f = 31 - Integer.numberOfLeadingZeros(length);
+			fl = f - SL_LOG + 1;
+			sl = (length >>> (f - SL_LOG)) ^ SL_COUNT;
+		}
+	}
+
+	// Pushes the block at the given address to the head of its free list
+	private void insertFree(int address) {
+		mapping(size[address]);
+		int list = fl * SL_COUNT + sl;
+		state[address] = FREE;
+		prev[address] = NONE;
+		next[address] = heads[list];
+		if (heads[list] != NONE) prev[heads[list]] = address;
+		heads[list] = address;
+		slBitmap[fl] |= 1L << sl;
+		flBitmap |= 1L << fl;
+	}
+
+	// Unlinks the block at the given address from its free list
+	private void removeFree(int address) {
+		mapping(size[address]);
+		int list = fl * SL_COUNT + sl;
+		state[address] = NO_BLOCK;
+		if (prev[address] == NONE) heads[list] = next[address];
+		else next[prev[address]] = next[address];
+		if (next[address] != NONE) prev[next[address]] = prev[address];
+		if (heads[list] == NONE) {
+			slBitmap[fl] &= ~(1L << sl);
+			if (slBitmap[fl] == 0) flBitmap &= ~(1L << fl);
+		}
+	}
+
+	// Merges the block at right into the block at left, which ends where it begins
+	private void absorb(int left, int right) {
+		size[left] += size[right];
+		state[right] = NO_BLOCK;
+		int after = left + size[left];
+		if (after < maxSize) prevPhys[after] = left;
+	}
+
+	// Appends the block at the given address to the list of allocated blocks
+	private void appendAllocated(int address) {
+		next[address] = NONE;
+		prev[address] = allocatedLast;
+		if (allocatedLast == NONE) allocatedFirst = address;
+		else next[allocatedLast] = address;
+		allocatedLast = address;
+		allocatedCount++;
+	}
+
+	// Removes the block at the given address from the list of allocated blocks
+	private void removeAllocated(int address) {
+		if (prev[address] == NONE) allocatedFirst = next[address];
+		else next[prev[address]] = next[address];
+		if (next[address] == NONE) allocatedLast = prev[address];
+		else prev[next[address]] = prev[address];
+		allocatedCount--;
+	}
+
+	// Appends the textual representation of the block at the given address
+	private void appendBlock(StringBuilder str, int address) {
+		str.append('(').append(address).append(" , ").append(size[address]).append(") ");
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.HashMap;
+
+/**
+ * Replays a recorded allocation trace against a memory space. A trace is a text file
+ * with one operation per line:
+ * <pre>
+ * a &lt;id&gt; &lt;size&gt;   allocates a block of the given size, and names it by the given id
+ * f &lt;id&gt;          frees the block that was allocated with the given id
+ * </pre>
+ * Empty lines and lines that start with '#' are ignored. The trace is read one line at
+ * a time, so a trace of any length is replayed in memory proportional to the number of
+ * blocks that are live at once, not to the length of the trace.
+ * <p>
+ * The player counts the operations and the failures (allocations that returned -1 or
+ * reused a live id, frees of unknown ids, and malformed lines), and measures the time
+ * spent in malloc and free.
+ */
+public class TracePlayer {
+
+	private final MemorySpace memory;
+	private final HashMap<String, Integer> addresses; // the base address of each live id
+
+	private long allocs;         // number of replayed allocations
+	private long frees;          // number of replayed frees
+	private long failedAllocs;   // number of allocations that returned -1 or reused a live id
+	private long failedFrees;    // number of frees of ids that are not live
+	private long malformedLines; // number of lines that are not valid operations
+	private long nanos;          // time spent in malloc and free, in nanoseconds
+
+	/**
+	 * Constructs a player that replays traces against the given memory space.
+	 *
+	 * @param memory
+	 *        the memory space
+	 */
+	public TracePlayer(MemorySpace memory) {
+		this.memory = memory;
+		addresses = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Replays the trace in the given file, line by line.
+	 *
+	 * @param fileName
+	 *        the name of the trace file
+	 * @throws IllegalArgumentException
+	 *         if the file cannot be opened
+	 */
+	public void play(String fileName) {
+		In in = new In(fileName);
+		try {
+			play(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Replays the trace that is read from the given input stream, line by line.
+	 *
+	 * @param in
+	 *        the input stream of the trace
+	 */
+	public void play(In in) {
+		String line;
+		while ((line = in.readLine()) != null) {
+			replay(line);
+		}
+	}
+
+	/**
+	 * Replays a single line of a trace.
+	 *
+	 * @param line
+	 *        the line
+	 */
+	public void replay(String line) {
+		line = line.trim();
+		if (line.isEmpty() || line.charAt(0) == '#') return;
+		String[] fields = line.split("\\s+");
+		try {
+			if (fields[0].equals("a") && fields.length == 3) {
+				alloc(fields[1], Integer.parseInt(fields[2]));
+			} else if (fields[0].equals("f") && fields.length == 2) {
+				free(fields[1]);
+			} else {
+				malformedLines++;
+			}
+		} catch (NumberFormatException e) {
+			malformedLines++;
+		}
+	}
+
+	// Allocates a block of the given size for the given id
+	private void alloc(String id, int size) {
+		if (addresses.containsKey(id)) {
+			// The id is still live: allocating it again would leak its block
+			allocs++;
+			failedAllocs++;
+			return;
+		}
+		long start = System.nanoTime();
+		int address = memory.malloc(size);
+		nanos += System.nanoTime() - start;
+		allocs++;
+		if (address == -1) {
+			failedAllocs++;
+		} else {
+			addresses.put(id, address);
+		}
+	}
+
+	// Frees the block of the given id
+	private void free(String id) {
+		frees++;
+		Integer address = addresses.remove(id);
+		if (address == null) {
+			failedFrees++;
+			return;
+		}
+		long start = System.nanoTime();
+		memory.free(address);
+		nanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Gets the number of replayed operations.
+	 * @return The number of allocations and frees.
+	 */
+	public long getOperations() {
+		return allocs + frees;
+	}
+
+	/**
+	 * Gets the number of failed operations.
+	 * @return The number of failed allocations, frees of unknown ids, and malformed lines.
+	 */
+	public long getFailures() {
+		return failedAllocs + failedFrees + malformedLines;
+	}
+
+	/**
+	 * Gets the number of failed allocations.
+	 * @return The number of allocations that returned -1 or reused a live id.
+	 */
+	public long getFailedAllocs() {
+		return failedAllocs;
+	}
+
+	/**
+	 * Gets the number of failed frees.
+	 * @return The number of frees of ids that are not live.
+	 */
+	public long getFailedFrees() {
+		return failedFrees;
+	}
+
+	/**
+	 * Gets the number of malformed lines.
+	 * @return The number of lines that are not valid operations.
+	 */
+	public long getMalformedLines() {
+		return malformedLines;
+	}
+
+	/**
+	 * Gets the replay throughput, counting only the time spent in malloc and free.
+	 * @return The number of operations per second.
+	 */
+	public double getOpsPerSecond() {
+		return (nanos == 0) ? 0 : getOperations() * 1e9 / nanos;
+	}
+
+	/**
+	 * A textual report of the replay.
+	 */
+	public String toString() {
+		return String.format("operations: %d (%d allocs, %d frees)%n"
+				+ "failures: %d (%d failed allocs, %d unknown frees, %d malformed lines)%n"
+				+ "throughput: %.0f ops/sec%n"
+				+ "live blocks: %d%n"
+				+ "fragmentation: %.4f",
+				getOperations(), allocs, frees,
+				getFailures(), failedAllocs, failedFrees, malformedLines,
+				getOpsPerSecond(), addresses.size(), memory.fragmentation());
+	}
+
+	/**
+	 * Replays a trace file against a new memory space, and reports the replay and the
+	 * latency and scan depth histograms of the memory space.
+	 * Usage: java TracePlayer traceFile heapSize [policy]
+	 * The policy is one of first-fit (the default), next-fit, best-fit, worst-fit and segregated.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			System.out.println("Usage: java TracePlayer traceFile heapSize [policy]");
+			return;
+		}
+		AllocationPolicy policy = AllocationPolicy.forName(args.length == 3 ? args[2] : "first-fit");
+		MemorySpace memory = new MemorySpace(Integer.parseInt(args[1]), policy);
+		MemorySpaceMetrics metrics = new MemorySpaceMetrics();
+		memory.setMetrics(metrics);
+		TracePlayer player = new TracePlayer(memory);
+		player.play(args[0]);
+		System.out.println(player);
+		System.out.println(metrics);
+	}
+}
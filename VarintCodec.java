@@ -0,0 +1,198 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads and writes ints over byte channels as varints: 7 bits per byte, low bits first,
+ * with the high bit of each byte set if more bytes follow. Small values take one byte,
+ * and no int takes more than five. Signed values, such as the differences between the
+ * base addresses of consecutive blocks, are zigzag-encoded first (0, -1, 1, -2, ... become
+ * 0, 1, 2, 3, ...), so that small negative values are short too.
+ * <p>
+ * The bytes go through a buffer, so the channel is called once per buffer, not per value.
+ */
+public class VarintCodec {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The largest number of bytes that a varint takes. */
+	public static final int MAX_LENGTH = 5;
+
+	/**
+	 * Puts the given int into the given buffer, as an unsigned varint.
+	 */
+	public static void putInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Puts the given int into the given buffer, zigzag-encoded as a varint.
+	 */
+	public static void putSignedInt(ByteBuffer buffer, int value) {
+		putInt(buffer, (value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Gets an unsigned varint from the given buffer.
+	 *
+	 * @throws IOException
+	 *         if the buffer ends before the varint does, or the varint is longer than five bytes
+	 */
+	public static int getInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 7 * MAX_LENGTH; shift += 7) {
+			if (!buffer.hasRemaining()) throw new EOFException("unexpected end of buffer");
+			int b = buffer.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("malformed varint");
+	}
+
+	/**
+	 * Gets a zigzag-encoded varint from the given buffer.
+	 *
+	 * @throws IOException
+	 *         if the buffer ends before the varint does, or the varint is longer than five bytes
+	 */
+	public static int getSignedInt(ByteBuffer buffer) throws IOException {
+		int value = getInt(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** Writes varints to a channel. */
+	public static class Writer {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/**
+		 * Constructs a writer to the given channel.
+		 */
+		public Writer(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Writes the given int, as an unsigned varint.
+		 */
+		public void writeInt(int value) throws IOException {
+			if (buffer.remaining() < MAX_LENGTH) flush();
+			putInt(buffer, value);
+		}
+
+		/**
+		 * Writes the given int, zigzag-encoded as a varint.
+		 */
+		public void writeSignedInt(int value) throws IOException {
+			writeInt((value << 1) ^ (value >> 31));
+		}
+
+		/**
+		 * Writes the given bytes as they are.
+		 */
+		public void writeBytes(byte[] bytes) throws IOException {
+			for (byte b : bytes) {
+				if (!buffer.hasRemaining()) flush();
+				buffer.put(b);
+			}
+		}
+
+		/**
+		 * Writes all the buffered bytes to the channel.
+		 */
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/** Reads varints from a channel. */
+	public static class Reader {
+		private final ReadableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/**
+		 * Constructs a reader from the given channel.
+		 */
+		public Reader(ReadableByteChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		/**
+		 * Reads an unsigned varint.
+		 *
+		 * @throws EOFException
+		 *         if the channel ends before the varint does
+		 * @throws IOException
+		 *         if the varint is longer than five bytes
+		 */
+		public int readInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 7 * MAX_LENGTH; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IOException("malformed varint");
+		}
+
+		/**
+		 * Reads a zigzag-encoded varint.
+		 *
+		 * @throws EOFException
+		 *         if the channel ends before the varint does
+		 */
+		public int readSignedInt() throws IOException {
+			int value = readInt();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		/**
+		 * Reads the given number of bytes.
+		 *
+		 * @throws EOFException
+		 *         if the channel ends before the bytes do
+		 */
+		public byte[] readBytes(int count) throws IOException {
+			byte[] bytes = new byte[count];
+			for (int i = 0; i < count; i++) {
+				bytes[i] = (byte) readByte();
+			}
+			return bytes;
+		}
+
+		/**
+		 * Returns true if the channel has no more bytes.
+		 */
+		public boolean atEnd() throws IOException {
+			return !fill();
+		}
+
+		// Reads the next byte
+		private int readByte() throws IOException {
+			if (!fill()) throw new EOFException("unexpected end of stream");
+			return buffer.get() & 0xFF;
+		}
+
+		// Makes sure that the buffer has a byte, and returns false if the channel has ended
+		private boolean fill() throws IOException {
+			while (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				buffer.flip();
+				if (read < 0) return false;
+			}
+			return true;
+		}
+	}
+}
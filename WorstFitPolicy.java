@@ -0,0 +1,15 @@
+/**
+ * Represents the worst-fit placement policy: malloc carves the requested block from the
+ * longest free block, so the block that remains free is as long as possible.
+ */
+public class WorstFitPolicy extends SizeOrderedPolicy {
+
+	/**
+	 * Selects the longest node, if it fits, in O(log n) time.
+	 */
+	public Node select(LinkedList freeList, int length) {
+		if (tree.isEmpty()) return null;
+		Node longest = tree.last();
+		return (longest.block.length >= length) ? longest : null;
+	}
+}